@@ -16,7 +16,7 @@ import io.reactivex.functions.Cancellable;
 public final class AccuracyEventFlowable {
 
     /**
-     * Creates a Flowable that subscirbe to the source of data (sensor) and emits {@link RxAccuracyEvent}
+     * Creates a Flowable that subscribes to the source of data (sensor) and emits {@link RxAccuracyEvent}
      * based on the changes of accuracy.
      * @param sensorManager A {@link SensorManager} object.
      * @param sensor The {@link Sensor Sensor} to register to.
@@ -0,0 +1,320 @@
+package com.gvillani.rxsensors;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Source of sensor data that relies on the hardware FIFO of the sensor hub for batching the
+ * events, so that the application processor can sleep between two deliveries.
+ * <p>
+ * The caller states a latency budget: the maximum time an event can stay in the FIFO before
+ * being reported. The budget is then sized against the FIFO capacity of the sensor (see
+ * {@link #planMaxReportLatencyUs(Sensor, int, int)}), so that the FIFO never overflows and no
+ * events are lost. All the events delivered within the same burst are emitted downstream as a
+ * single batch.
+ * <p>
+ * A pending batch can be forced out with {@link #flush()}, for example when the application
+ * comes to the foreground and needs fresh data.
+ */
+public final class BatchedSensorFlowable {
+
+    /**
+     * Fraction of the FIFO that is used for planning the report latency. The remaining part is
+     * left as headroom for the jitter of the sampling rate.
+     */
+    private static final float FIFO_FILL_RATIO = 0.8F;
+
+    private static final int DELAY_GAME_US = 20000;
+
+    private static final int DELAY_UI_US = 66667;
+
+    private static final int DELAY_NORMAL_US = 200000;
+
+    private final SensorManager sensorManager;
+
+    private final Sensor sensor;
+
+    private final int samplingPeriodUs;
+
+    private final int maxReportLatencyUs;
+
+    private final int expectedBatchSize;
+
+    private final Handler handler;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Flowable<List<RxSensorEvent>> events;
+
+    private BatchedSensorFlowable(Builder builder) {
+        this.sensorManager = builder.sensorManager;
+        this.sensor = builder.sensor;
+        this.samplingPeriodUs = builder.samplingPeriodUs;
+        this.maxReportLatencyUs = planMaxReportLatencyUs(builder.sensor, builder.samplingPeriodUs,
+                builder.latencyBudgetUs);
+        this.handler = builder.handler != null ? builder.handler : new Handler(Looper.getMainLooper());
+
+        int periodUs = toPeriodUs(sensor, samplingPeriodUs);
+        this.expectedBatchSize = periodUs > 0 ? Math.max(1, maxReportLatencyUs / periodUs) : 1;
+        this.events = createFlowable();
+    }
+
+    public static class Builder {
+        private final SensorManager sensorManager;
+
+        private final Sensor sensor;
+
+        private final int samplingPeriodUs;
+
+        private int latencyBudgetUs;
+
+        private Handler handler;
+
+        public Builder(SensorManager sensorManager, Sensor sensor, int samplingPeriodUs) {
+            this.sensorManager = sensorManager;
+            this.sensor = sensor;
+            this.samplingPeriodUs = samplingPeriodUs;
+        }
+
+        /**
+         * Sets the maximum time, in microseconds, that an event can be delayed before being
+         * delivered. The effective report latency can be lower, see
+         * {@link #planMaxReportLatencyUs(Sensor, int, int)}.
+         */
+        public Builder setLatencyBudgetUs(int latencyBudgetUs) {
+            this.latencyBudgetUs = latencyBudgetUs;
+            return this;
+        }
+
+        /**
+         * Sets the {@link Handler} on which the events are received and the batches are
+         * assembled. By default the main looper is used.
+         */
+        public Builder setHandler(Handler handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        public BatchedSensorFlowable build() {
+            return new BatchedSensorFlowable(this);
+        }
+    }
+
+    /**
+     * Computes the maxReportLatencyUs to use for registering to the sensor, given the latency
+     * budget of the caller. The result never exceeds the budget, and it is limited to the time
+     * needed to fill (most of) the hardware FIFO of the sensor at the requested sampling period,
+     * because when the FIFO is full the oldest events are lost. If the sensor does not support
+     * batching the result is zero.
+     *
+     * @param sensor           The {@link Sensor Sensor} to register to.
+     * @param samplingPeriodUs Sampling period in microseconds, or one of the SENSOR_DELAY_*
+     *                         constants of {@link SensorManager}.
+     * @param latencyBudgetUs  Maximum latency accepted by the caller, in microseconds.
+     * @return the report latency, in microseconds.
+     */
+    public static int planMaxReportLatencyUs(Sensor sensor, int samplingPeriodUs, int latencyBudgetUs) {
+        if (latencyBudgetUs <= 0 || Build.VERSION.SDK_INT < 19) {
+            return 0;
+        }
+
+        int fifoCapacity = getFifoCapacity(sensor);
+        if (fifoCapacity <= 0) {
+            return 0;
+        }
+
+        int periodUs = toPeriodUs(sensor, samplingPeriodUs);
+        if (periodUs <= 0) {
+            // on-change sensors: there is no way to predict how fast the FIFO is filled
+            return latencyBudgetUs;
+        }
+
+        long fifoLatencyUs = (long) (fifoCapacity * FIFO_FILL_RATIO) * periodUs;
+        return (int) Math.min(latencyBudgetUs, fifoLatencyUs);
+    }
+
+    /**
+     * @return A Flowable that emits the events of the sensor, grouped in the batches delivered by
+     * the hardware.
+     */
+    public Flowable<List<RxSensorEvent>> events() {
+        return events;
+    }
+
+    /**
+     * Asks the sensor hub to deliver immediately all the events stored in the FIFO, for all the
+     * active subscriptions. The events are emitted as a single batch once the flush completes.
+     *
+     * @return true if the flush request has been accepted for at least one subscription.
+     */
+    public boolean flush() {
+        if (Build.VERSION.SDK_INT < 19) {
+            return false;
+        }
+
+        boolean flushed = false;
+        for (Listener listener : listeners) {
+            flushed |= sensorManager.flush(listener);
+        }
+        return flushed;
+    }
+
+    /**
+     * @return the report latency, in microseconds, used for registering to the sensor.
+     */
+    public int getMaxReportLatencyUs() {
+        return maxReportLatencyUs;
+    }
+
+    /**
+     * @return the number of events expected in each batch, when the FIFO is not flushed earlier.
+     */
+    public int getExpectedBatchSize() {
+        return expectedBatchSize;
+    }
+
+    private Flowable<List<RxSensorEvent>> createFlowable() {
+        return Flowable.create(new FlowableOnSubscribe<List<RxSensorEvent>>() {
+            @Override
+            public void subscribe(@NonNull FlowableEmitter<List<RxSensorEvent>> e) throws Exception {
+                final Listener listener = Build.VERSION.SDK_INT < 19
+                        ? new Listener(e, handler, expectedBatchSize)
+                        : new FlushListener(e, handler, expectedBatchSize);
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        listeners.remove(listener);
+                        sensorManager.unregisterListener(listener);
+                        listener.dispose();
+                    }
+                });
+
+                listeners.add(listener);
+                if (Build.VERSION.SDK_INT < 19) {
+                    sensorManager.registerListener(listener, sensor, samplingPeriodUs, handler);
+                } else {
+                    sensorManager.registerListener(listener, sensor, samplingPeriodUs, maxReportLatencyUs, handler);
+                }
+            }
+        }, BackpressureStrategy.MISSING);
+    }
+
+    @TargetApi(19)
+    private static int getFifoCapacity(Sensor sensor) {
+        int reserved = sensor.getFifoReservedEventCount();
+        return reserved > 0 ? reserved : sensor.getFifoMaxEventCount();
+    }
+
+    private static int toPeriodUs(Sensor sensor, int samplingPeriodUs) {
+        if (samplingPeriodUs == SensorManager.SENSOR_DELAY_FASTEST) {
+            return sensor.getMinDelay();
+        }
+        return toPeriodUs(samplingPeriodUs, 0);
+    }
+
+    /**
+     * @param samplingPeriodUs Sampling period in microseconds, or one of the SENSOR_DELAY_*
+     *                         constants of {@link SensorManager}.
+     * @param fastestPeriodUs  The period assumed for {@link SensorManager#SENSOR_DELAY_FASTEST}.
+     * @return the sampling period in microseconds.
+     */
+    static int toPeriodUs(int samplingPeriodUs, int fastestPeriodUs) {
+        switch (samplingPeriodUs) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return fastestPeriodUs;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return DELAY_GAME_US;
+            case SensorManager.SENSOR_DELAY_UI:
+                return DELAY_UI_US;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return DELAY_NORMAL_US;
+            default:
+                return samplingPeriodUs;
+        }
+    }
+
+    /**
+     * Collects the events of a burst. The first event of a burst posts a drain on the same
+     * handler the events are delivered on, so the batch is emitted once the sensor framework
+     * has dispatched all the events read in that round.
+     */
+    static class Listener implements SensorEventListener {
+        private final FlowableEmitter<List<RxSensorEvent>> emitter;
+
+        private final Handler handler;
+
+        private final int expectedBatchSize;
+
+        private List<RxSensorEvent> pending;
+
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                emitPending();
+            }
+        };
+
+        Listener(FlowableEmitter<List<RxSensorEvent>> emitter, Handler handler, int expectedBatchSize) {
+            this.emitter = emitter;
+            this.handler = handler;
+            this.expectedBatchSize = expectedBatchSize;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (pending == null) {
+                pending = new ArrayList<>(expectedBatchSize);
+                handler.post(drain);
+            }
+            pending.add(new RxSensorEvent(event));
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+
+        void emitPending() {
+            handler.removeCallbacks(drain);
+            List<RxSensorEvent> batch = pending;
+            pending = null;
+            if (batch != null && !emitter.isCancelled()) {
+                emitter.onNext(batch);
+            }
+        }
+
+        void dispose() {
+            handler.removeCallbacks(drain);
+        }
+    }
+
+    @TargetApi(19)
+    static final class FlushListener extends Listener implements SensorEventListener2 {
+
+        FlushListener(FlowableEmitter<List<RxSensorEvent>> emitter, Handler handler, int expectedBatchSize) {
+            super(emitter, handler, expectedBatchSize);
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            emitPending();
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.gvillani.rxsensors;
+
+import com.gvillani.rxsensors.offline.SensorRecording;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Reduces sensor data to a number of points suitable for a chart, either live, as operators on
+ * a stream of {@link RxSensorEvent}, or on a range of a {@link SensorRecording}. Two reductions
+ * are available:
+ * <ul>
+ * <li>envelopes: the minimum, maximum and mean of every axis over fixed time buckets, see
+ * {@link SampleEnvelope}. Drawing minimum and maximum keeps the spikes visible;</li>
+ * <li>Largest-Triangle-Three-Buckets (LTTB): one sample per bucket, the one that forms the
+ * largest triangle with the sample selected in the previous bucket and the mean of the next one,
+ * which preserves the visual shape of a single axis.</li>
+ * </ul>
+ * All the reductions read every sample once. The operators emit a point as soon as its bucket is
+ * closed by a later sample, so a chart can append the points as the data arrives; they keep only
+ * the samples of the current bucket (two buckets for LTTB).
+ */
+public final class Downsampler {
+
+    /**
+     * Creates an operator that emits the envelope of every time bucket with at least one sample.
+     * The buckets are aligned to the first event; a bucket is emitted when a later event arrives,
+     * or when the upstream completes. The envelopes have the dimension of the first event: the
+     * extra values of a longer event are ignored, and a shorter event updates only its own axes.
+     *
+     * @param bucket Duration of a bucket.
+     * @param unit   Unit of bucket.
+     */
+    public static FlowableTransformer<RxSensorEvent, SampleEnvelope> envelopes(long bucket, TimeUnit unit) {
+        final long bucketNs = checkBucket(bucket, unit);
+        return new FlowableTransformer<RxSensorEvent, SampleEnvelope>() {
+            @Override
+            public Publisher<SampleEnvelope> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+                return Flowable.defer(new Callable<Publisher<SampleEnvelope>>() {
+                    @Override
+                    public Publisher<SampleEnvelope> call() throws Exception {
+                        final EnvelopeState state = new EnvelopeState(bucketNs);
+                        return upstream.concatMapIterable(new Function<RxSensorEvent, Iterable<SampleEnvelope>>() {
+                            @Override
+                            public Iterable<SampleEnvelope> apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                                return state.add(rxSensorEvent);
+                            }
+                        }).concatWith(Flowable.defer(new Callable<Publisher<SampleEnvelope>>() {
+                            @Override
+                            public Publisher<SampleEnvelope> call() throws Exception {
+                                return Flowable.fromIterable(state.flush());
+                            }
+                        }));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Creates an operator that selects, with LTTB on the provided axis, one event per time bucket
+     * with at least one sample. The first and the last event are always emitted. The buckets are
+     * aligned to the first event; the event of a bucket is emitted when the next bucket is closed,
+     * or when the upstream completes.
+     *
+     * @param bucket Duration of a bucket.
+     * @param unit   Unit of bucket.
+     * @param axis   The axis the selection is based on.
+     */
+    public static FlowableTransformer<RxSensorEvent, RxSensorEvent> largestTriangle(long bucket, TimeUnit unit,
+                                                                                    final int axis) {
+        final long bucketNs = checkBucket(bucket, unit);
+        if (axis < 0) {
+            throw new IllegalArgumentException("axis >= 0 required but it was " + axis);
+        }
+        return new FlowableTransformer<RxSensorEvent, RxSensorEvent>() {
+            @Override
+            public Publisher<RxSensorEvent> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+                return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+                    @Override
+                    public Publisher<RxSensorEvent> call() throws Exception {
+                        final TriangleState state = new TriangleState(bucketNs, axis);
+                        return upstream.concatMapIterable(new Function<RxSensorEvent, Iterable<RxSensorEvent>>() {
+                            @Override
+                            public Iterable<RxSensorEvent> apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                                return state.add(rxSensorEvent);
+                            }
+                        }).concatWith(Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+                            @Override
+                            public Publisher<RxSensorEvent> call() throws Exception {
+                                return Flowable.fromIterable(state.flush());
+                            }
+                        }));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Computes the envelopes of the samples of a recording with timestamp between fromTimestamp
+     * and toTimestamp (both included), on buckets of equal duration. Empty buckets are skipped.
+     *
+     * @param buckets The number of buckets the range is divided in.
+     */
+    public static List<SampleEnvelope> envelopes(SensorRecording recording, long fromTimestamp, long toTimestamp,
+                                                 int buckets) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("buckets > 0 required but it was " + buckets);
+        }
+        int from = recording.indexOf(fromTimestamp);
+        int to = toTimestamp == Long.MAX_VALUE ? recording.size() : recording.indexOf(toTimestamp + 1);
+        List<SampleEnvelope> envelopes = new ArrayList<>();
+        if (from >= to) {
+            return envelopes;
+        }
+
+        long start = recording.timestampAt(from);
+        long span = recording.timestampAt(to - 1) - start + 1;
+        long bucketNs = Math.max(1, (span + buckets - 1) / buckets);
+
+        int dimension = recording.dimension();
+        float[] sample = new float[dimension];
+        SampleEnvelope.Accumulator accumulator = new SampleEnvelope.Accumulator(dimension);
+        long bucketStart = start;
+        for (int i = from; i < to; i++) {
+            long timestamp = recording.timestampAt(i);
+            if (timestamp >= bucketStart + bucketNs) {
+                envelopes.add(accumulator.take(bucketStart, bucketStart + bucketNs));
+                bucketStart = start + (timestamp - start) / bucketNs * bucketNs;
+            }
+            for (int axis = 0; axis < dimension; axis++) {
+                sample[axis] = recording.valueAt(i, axis);
+            }
+            accumulator.add(sample, 0);
+        }
+        envelopes.add(accumulator.take(bucketStart, bucketStart + bucketNs));
+        return envelopes;
+    }
+
+    /**
+     * Selects with LTTB, on the provided axis, the samples of a recording with timestamp between
+     * fromTimestamp and toTimestamp (both included). As in the original algorithm, the first and
+     * the last sample are always selected and the others are divided in buckets with the same
+     * number of samples.
+     *
+     * @param points The number of samples to select. With one point only the first sample is
+     *               selected, with two points the first and the last one.
+     * @return the indexes of the selected samples, in ascending order.
+     */
+    public static int[] largestTriangle(SensorRecording recording, long fromTimestamp, long toTimestamp,
+                                        int points, int axis) {
+        if (points <= 0) {
+            throw new IllegalArgumentException("points > 0 required but it was " + points);
+        }
+        if (axis < 0 || axis >= recording.dimension()) {
+            throw new IllegalArgumentException("axis in [0, " + recording.dimension() + ") required but it was "
+                    + axis);
+        }
+        int from = recording.indexOf(fromTimestamp);
+        int to = toTimestamp == Long.MAX_VALUE ? recording.size() : recording.indexOf(toTimestamp + 1);
+        int size = Math.max(0, to - from);
+
+        if (size <= points) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = from + i;
+            }
+            return all;
+        }
+        if (points == 1) {
+            return new int[]{from};
+        }
+        if (points == 2) {
+            return new int[]{from, to - 1};
+        }
+
+        int[] selected = new int[points];
+        long origin = recording.timestampAt(from);
+        double every = (double) (size - 2) / (points - 2);
+        int a = from;
+        selected[0] = from;
+
+        for (int bucket = 0; bucket < points - 2; bucket++) {
+            int nextStart = from + 1 + (int) ((bucket + 1) * every);
+            int nextEnd = Math.min(from + 1 + (int) ((bucket + 2) * every), to);
+            if (bucket == points - 3) {
+                nextStart = to - 1;
+                nextEnd = to;
+            }
+            double cx = 0;
+            double cy = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                cx += recording.timestampAt(i) - origin;
+                cy += recording.valueAt(i, axis);
+            }
+            cx /= nextEnd - nextStart;
+            cy /= nextEnd - nextStart;
+
+            double ax = recording.timestampAt(a) - origin;
+            double ay = recording.valueAt(a, axis);
+            int bucketStart = from + 1 + (int) (bucket * every);
+            double maxArea = -1;
+            int best = bucketStart;
+            for (int i = bucketStart; i < nextStart; i++) {
+                double area = triangleArea(ax, ay, recording.timestampAt(i) - origin, recording.valueAt(i, axis), cx, cy);
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = i;
+                }
+            }
+            selected[bucket + 1] = best;
+            a = best;
+        }
+        selected[points - 1] = to - 1;
+        return selected;
+    }
+
+    /**
+     * @return twice the area of the triangle.
+     */
+    static double triangleArea(double ax, double ay, double bx, double by, double cx, double cy) {
+        return Math.abs((ax - cx) * (by - ay) - (ax - bx) * (cy - ay));
+    }
+
+    private static long checkBucket(long bucket, TimeUnit unit) {
+        long bucketNs = unit.toNanos(bucket);
+        if (bucketNs <= 0) {
+            throw new IllegalArgumentException("bucket > 0 required but it was " + bucket);
+        }
+        return bucketNs;
+    }
+
+    /**
+     * State of a single subscription of {@link #envelopes(long, TimeUnit)}.
+     */
+    static final class EnvelopeState {
+        private final long bucketNs;
+
+        private SampleEnvelope.Accumulator accumulator;
+
+        private long origin;
+
+        private long bucketStart;
+
+        EnvelopeState(long bucketNs) {
+            this.bucketNs = bucketNs;
+        }
+
+        List<SampleEnvelope> add(RxSensorEvent event) {
+            List<SampleEnvelope> output = Collections.emptyList();
+            if (accumulator == null) {
+                accumulator = new SampleEnvelope.Accumulator(event.values.length);
+                origin = event.timestamp;
+                bucketStart = origin;
+            } else if (event.timestamp >= bucketStart + bucketNs) {
+                output = Collections.singletonList(accumulator.take(bucketStart, bucketStart + bucketNs));
+                bucketStart = origin + (event.timestamp - origin) / bucketNs * bucketNs;
+            }
+            accumulator.add(event.values, 0);
+            return output;
+        }
+
+        List<SampleEnvelope> flush() {
+            if (accumulator == null || accumulator.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(accumulator.take(bucketStart, bucketStart + bucketNs));
+        }
+    }
+
+    /**
+     * State of a single subscription of {@link #largestTriangle(long, TimeUnit, int)}: the last
+     * selected event, the closed bucket waiting for the mean of the next one, and the open bucket.
+     */
+    static final class TriangleState {
+        private final long bucketNs;
+
+        private final int axis;
+
+        private RxSensorEvent selected;
+
+        private long origin;
+
+        private List<RxSensorEvent> closed = new ArrayList<>();
+
+        private List<RxSensorEvent> open = new ArrayList<>();
+
+        private long openStart;
+
+        TriangleState(long bucketNs, int axis) {
+            this.bucketNs = bucketNs;
+            this.axis = axis;
+        }
+
+        List<RxSensorEvent> add(RxSensorEvent event) {
+            if (selected == null) {
+                selected = event;
+                origin = event.timestamp;
+                openStart = origin;
+                return Collections.singletonList(event);
+            }
+
+            List<RxSensorEvent> output = Collections.emptyList();
+            if (event.timestamp >= openStart + bucketNs && !open.isEmpty()) {
+                if (!closed.isEmpty()) {
+                    output = Collections.singletonList(select(meanTime(open), meanValue(open)));
+                }
+                List<RxSensorEvent> recycled = closed;
+                recycled.clear();
+                closed = open;
+                open = recycled;
+            }
+            if (event.timestamp >= openStart + bucketNs) {
+                openStart = origin + (event.timestamp - origin) / bucketNs * bucketNs;
+            }
+            open.add(event);
+            return output;
+        }
+
+        List<RxSensorEvent> flush() {
+            if (open.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<RxSensorEvent> output = new ArrayList<>(2);
+            RxSensorEvent last = open.remove(open.size() - 1);
+            if (!closed.isEmpty()) {
+                if (open.isEmpty()) {
+                    output.add(select(last.timestamp - origin, last.values[axis]));
+                } else {
+                    output.add(select(meanTime(open), meanValue(open)));
+                }
+            }
+            if (!open.isEmpty()) {
+                closed.clear();
+                closed.addAll(open);
+                output.add(select(last.timestamp - origin, last.values[axis]));
+            }
+            output.add(last);
+            open.clear();
+            closed.clear();
+            return output;
+        }
+
+        /**
+         * Selects the event of the closed bucket, given the mean of the next bucket.
+         */
+        private RxSensorEvent select(double cx, double cy) {
+            double ax = selected.timestamp - origin;
+            double ay = selected.values[axis];
+            double maxArea = -1;
+            RxSensorEvent best = null;
+            for (int i = 0; i < closed.size(); i++) {
+                RxSensorEvent candidate = closed.get(i);
+                double area = triangleArea(ax, ay, candidate.timestamp - origin, candidate.values[axis], cx, cy);
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = candidate;
+                }
+            }
+            selected = best;
+            return best;
+        }
+
+        private double meanTime(List<RxSensorEvent> events) {
+            double sum = 0;
+            for (int i = 0; i < events.size(); i++) {
+                sum += events.get(i).timestamp - origin;
+            }
+            return sum / events.size();
+        }
+
+        private double meanValue(List<RxSensorEvent> events) {
+            double sum = 0;
+            for (int i = 0; i < events.size(); i++) {
+                sum += events.get(i).values[axis];
+            }
+            return sum / events.size();
+        }
+    }
+}
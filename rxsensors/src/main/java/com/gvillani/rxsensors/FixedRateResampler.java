@@ -0,0 +1,305 @@
+package com.gvillani.rxsensors;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Resamples a stream of {@link RxSensorEvent} with irregular timestamps to an exact, fixed, rate.
+ * The output samples are aligned to the timestamp of the first event, and emitted in
+ * {@link ResampledBatch batches}.
+ * <p>
+ * Only the samples needed by the interpolation are retained (two for linear, four for cubic),
+ * in primitive arrays. Events with a timestamp not greater than the previous one are discarded,
+ * as well as events with fewer values than the first one, whose missing axes are unknown.
+ */
+public final class FixedRateResampler implements FlowableTransformer<RxSensorEvent, ResampledBatch> {
+
+    public enum Interpolation {
+        /**
+         * Straight line between the two samples around the output time.
+         */
+        LINEAR,
+        /**
+         * Cubic Hermite spline, with tangents computed on the neighbour samples. It delays the
+         * output by one more input sample.
+         */
+        CUBIC
+    }
+
+    /**
+     * How the output samples that fall in a gap of the input (two consecutive events farther
+     * than the maximum gap) are computed.
+     */
+    public enum GapPolicy {
+        /**
+         * The last value before the gap is repeated.
+         */
+        HOLD,
+        /**
+         * The gap is interpolated as any other interval.
+         */
+        INTERPOLATE,
+        /**
+         * All the values of the sample are NaN, see {@link ResampledBatch#isGap(int)}.
+         */
+        MARK
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final long periodNs;
+
+    private final Interpolation interpolation;
+
+    private final GapPolicy gapPolicy;
+
+    private final long maxGapNs;
+
+    private final int batchSize;
+
+    private FixedRateResampler(Builder builder) {
+        this.periodNs = builder.periodNs;
+        this.interpolation = builder.interpolation;
+        this.gapPolicy = builder.gapPolicy;
+        this.maxGapNs = builder.maxGapNs;
+        this.batchSize = builder.batchSize;
+    }
+
+    public static class Builder {
+        private final long periodNs;
+
+        private Interpolation interpolation = Interpolation.LINEAR;
+
+        private GapPolicy gapPolicy = GapPolicy.INTERPOLATE;
+
+        private long maxGapNs = Long.MAX_VALUE;
+
+        private int batchSize = DEFAULT_BATCH_SIZE;
+
+        /**
+         * @param period Time between two output samples.
+         * @param unit   Unit of period.
+         */
+        public Builder(long period, TimeUnit unit) {
+            this.periodNs = unit.toNanos(period);
+            if (periodNs <= 0) {
+                throw new IllegalArgumentException("period > 0 required but it was " + period);
+            }
+        }
+
+        public Builder setInterpolation(Interpolation interpolation) {
+            this.interpolation = interpolation;
+            return this;
+        }
+
+        /**
+         * Sets how the gaps of the input are handled. By default the gaps are interpolated.
+         *
+         * @param gapPolicy The {@link GapPolicy} to apply.
+         * @param maxGap    Maximum time between two input events that is not considered a gap.
+         * @param unit      Unit of maxGap.
+         */
+        public Builder setGapPolicy(GapPolicy gapPolicy, long maxGap, TimeUnit unit) {
+            this.gapPolicy = gapPolicy;
+            this.maxGapNs = unit.toNanos(maxGap);
+            return this;
+        }
+
+        /**
+         * Sets the number of samples in every batch. The last batch, emitted when the upstream
+         * completes, can be smaller.
+         */
+        public Builder setBatchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize > 0 required but it was " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public FixedRateResampler build() {
+            return new FixedRateResampler(this);
+        }
+    }
+
+    @Override
+    public Publisher<ResampledBatch> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+        return Flowable.defer(new Callable<Publisher<ResampledBatch>>() {
+            @Override
+            public Publisher<ResampledBatch> call() throws Exception {
+                final State state = new State();
+                return upstream.concatMapIterable(new Function<RxSensorEvent, Iterable<ResampledBatch>>() {
+                    @Override
+                    public Iterable<ResampledBatch> apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        return state.add(rxSensorEvent);
+                    }
+                }).concatWith(Flowable.defer(new Callable<Publisher<ResampledBatch>>() {
+                    @Override
+                    public Publisher<ResampledBatch> call() throws Exception {
+                        return Flowable.fromIterable(state.flush());
+                    }
+                }));
+            }
+        });
+    }
+
+    /**
+     * State of a single subscription. The history holds the last input samples, the newest at
+     * index count - 1.
+     */
+    final class State {
+        private final int historySize = interpolation == Interpolation.LINEAR ? 2 : 4;
+
+        private final long[] times = new long[historySize];
+
+        private float[] history;
+
+        private int count;
+
+        private int dimension;
+
+        private long nextTimestamp;
+
+        private float[] batch;
+
+        private int batchCount;
+
+        private long batchTimestamp;
+
+        private List<ResampledBatch> output;
+
+        List<ResampledBatch> add(RxSensorEvent event) {
+            if (count == 0) {
+                dimension = event.values.length;
+                history = new float[historySize * dimension];
+                nextTimestamp = event.timestamp;
+            } else if (event.timestamp <= times[count - 1] || event.values.length < dimension) {
+                return Collections.emptyList();
+            }
+
+            if (count == historySize) {
+                System.arraycopy(times, 1, times, 0, historySize - 1);
+                System.arraycopy(history, dimension, history, 0, (historySize - 1) * dimension);
+                count--;
+            }
+            times[count] = event.timestamp;
+            System.arraycopy(event.values, 0, history, count * dimension, dimension);
+            count++;
+
+            if (interpolation == Interpolation.LINEAR) {
+                if (count >= 2) {
+                    emitSegment(count - 2);
+                }
+            } else if (count >= 3) {
+                emitSegment(count - 3);
+            }
+            return takeOutput();
+        }
+
+        List<ResampledBatch> flush() {
+            if (interpolation == Interpolation.CUBIC && count >= 2) {
+                emitSegment(count - 2);
+            }
+            if (batchCount > 0) {
+                emitBatch();
+            }
+            return takeOutput();
+        }
+
+        /**
+         * Emits all the output samples up to the end of the segment [a, a + 1].
+         */
+        private void emitSegment(int a) {
+            int b = a + 1;
+            boolean gap = times[b] - times[a] > maxGapNs;
+
+            while (nextTimestamp <= times[b]) {
+                if (batch == null) {
+                    batch = new float[batchSize * dimension];
+                    batchTimestamp = nextTimestamp;
+                }
+                int offset = batchCount * dimension;
+
+                if (nextTimestamp == times[b]) {
+                    System.arraycopy(history, b * dimension, batch, offset, dimension);
+                } else if (gap && gapPolicy == GapPolicy.HOLD) {
+                    System.arraycopy(history, a * dimension, batch, offset, dimension);
+                } else if (gap && gapPolicy == GapPolicy.MARK) {
+                    for (int i = 0; i < dimension; i++) {
+                        batch[offset + i] = Float.NaN;
+                    }
+                } else if (interpolation == Interpolation.LINEAR) {
+                    interpolateLinear(a, b, offset);
+                } else {
+                    interpolateCubic(a, b, offset);
+                }
+
+                nextTimestamp += periodNs;
+                if (++batchCount == batchSize) {
+                    emitBatch();
+                }
+            }
+        }
+
+        private void interpolateLinear(int a, int b, int offset) {
+            double s = (double) (nextTimestamp - times[a]) / (times[b] - times[a]);
+            for (int i = 0; i < dimension; i++) {
+                float va = history[a * dimension + i];
+                float vb = history[b * dimension + i];
+                batch[offset + i] = (float) (va + s * (vb - va));
+            }
+        }
+
+        private void interpolateCubic(int a, int b, int offset) {
+            int p = a > 0 ? a - 1 : a;
+            int n = b < count - 1 ? b + 1 : b;
+
+            double h = times[b] - times[a];
+            double s = (nextTimestamp - times[a]) / h;
+            double s2 = s * s;
+            double s3 = s2 * s;
+            double h00 = 2 * s3 - 3 * s2 + 1;
+            double h10 = s3 - 2 * s2 + s;
+            double h01 = -2 * s3 + 3 * s2;
+            double h11 = s3 - s2;
+
+            for (int i = 0; i < dimension; i++) {
+                float vp = history[p * dimension + i];
+                float va = history[a * dimension + i];
+                float vb = history[b * dimension + i];
+                float vn = history[n * dimension + i];
+                double ma = (vb - vp) / (double) (times[b] - times[p]);
+                double mb = (vn - va) / (double) (times[n] - times[a]);
+                batch[offset + i] = (float) (h00 * va + h10 * h * ma + h01 * vb + h11 * h * mb);
+            }
+        }
+
+        private void emitBatch() {
+            if (output == null) {
+                output = new ArrayList<>(1);
+            }
+            output.add(new ResampledBatch(batchTimestamp, periodNs, batchCount, dimension, batch));
+            batch = null;
+            batchCount = 0;
+        }
+
+        private List<ResampledBatch> takeOutput() {
+            if (output == null) {
+                return Collections.emptyList();
+            }
+            List<ResampledBatch> result = output;
+            output = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.gvillani.rxsensors;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.os.Build;
+import android.view.Choreographer;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * Reduces a stream of {@link RxSensorEvent} to at most one event per display frame, e.g. for
+ * gauges and charts that would otherwise redraw for every sample of a 200 Hz sensor.
+ * <p>
+ * The samples are accumulated in primitive state on the thread that emits them, which should not
+ * be the main thread, e.g. after {@code observeOn(Schedulers.computation())}.
+ * On every frame the accumulated samples are reduced to a single event, according to the
+ * {@link Mode}, and emitted on the thread of the frame signal: by default the main thread,
+ * aligned to the frame callbacks of {@link Choreographer}. Frames without new samples emit
+ * nothing. The samples accumulated after the last frame are emitted when the upstream completes.
+ * <p>
+ * The emitted event has the sensor, accuracy and timestamp of the last sample of the frame.
+ */
+public final class FrameConflator implements FlowableTransformer<RxSensorEvent, RxSensorEvent> {
+
+    public enum Mode {
+        /**
+         * The last sample of the frame.
+         */
+        LATEST,
+        /**
+         * The mean of every value over the samples of the frame.
+         */
+        MEAN,
+        /**
+         * The minimum and the maximum of every value over the samples of the frame: the event has
+         * twice the values of the samples, first all the minimums, then all the maximums.
+         */
+        ENVELOPE
+    }
+
+    private static final long FALLBACK_FRAME_PERIOD_NS = 16666667;
+
+    private final Mode mode;
+
+    private final Flowable<?> frames;
+
+    private FrameConflator(Builder builder) {
+        this.mode = builder.mode;
+        this.frames = builder.frames != null ? builder.frames : defaultFrames();
+    }
+
+    public static class Builder {
+        private final Mode mode;
+
+        private Flowable<?> frames;
+
+        public Builder(Mode mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * Sets the signal of the frames: an event is emitted, if there are new samples, every time
+         * it emits an item. By default it is {@link #choreographerFrames()} from API level 16,
+         * and {@link #timerFrames(long, TimeUnit, Scheduler)} at 60 Hz on the main thread on
+         * older versions. A timer is also the way to run the operator in JVM tests.
+         */
+        public Builder setFrames(Flowable<?> frames) {
+            this.frames = frames;
+            return this;
+        }
+
+        public FrameConflator build() {
+            return new FrameConflator(this);
+        }
+    }
+
+    /**
+     * Creates a Flowable that emits the frame time, in nanoseconds, on every frame of the display,
+     * from the main thread.
+     */
+    @TargetApi(16)
+    public static Flowable<Long> choreographerFrames() {
+        return Flowable.create(new FlowableOnSubscribe<Long>() {
+            @Override
+            public void subscribe(@NonNull final FlowableEmitter<Long> e) throws Exception {
+                final Choreographer choreographer = Choreographer.getInstance();
+                final Choreographer.FrameCallback callback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        e.onNext(frameTimeNanos);
+                        if (!e.isCancelled()) {
+                            choreographer.postFrameCallback(this);
+                        }
+                    }
+                };
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        choreographer.removeFrameCallback(callback);
+                    }
+                });
+                choreographer.postFrameCallback(callback);
+            }
+        }, BackpressureStrategy.LATEST).subscribeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Creates a frame signal from a plain timer, emitting on the provided Scheduler.
+     */
+    public static Flowable<Long> timerFrames(long period, TimeUnit unit, Scheduler scheduler) {
+        return Flowable.interval(period, period, unit, scheduler).onBackpressureLatest();
+    }
+
+    private static Flowable<?> defaultFrames() {
+        if (Build.VERSION.SDK_INT < 16) {
+            return timerFrames(FALLBACK_FRAME_PERIOD_NS, TimeUnit.NANOSECONDS, AndroidSchedulers.mainThread());
+        }
+        return choreographerFrames();
+    }
+
+    @Override
+    public Publisher<RxSensorEvent> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+        return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> call() throws Exception {
+                final Accumulator accumulator = new Accumulator();
+                // a single synchronized step, so that a frame and the completion never reduce the
+                // same samples twice, nor an empty frame
+                final Maybe<RxSensorEvent> take = Maybe.fromCallable(new Callable<RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent call() throws Exception {
+                        return accumulator.take();
+                    }
+                });
+
+                return upstream.doOnNext(new Consumer<RxSensorEvent>() {
+                    @Override
+                    public void accept(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        accumulator.add(rxSensorEvent);
+                    }
+                }).ignoreElements().<RxSensorEvent>toFlowable().publish(new Function<Flowable<RxSensorEvent>, Publisher<RxSensorEvent>>() {
+                    @Override
+                    public Publisher<RxSensorEvent> apply(@NonNull Flowable<RxSensorEvent> accumulation) throws Exception {
+                        Flowable<RxSensorEvent> perFrame = frames.takeUntil(accumulation)
+                                .flatMapMaybe(new Function<Object, Maybe<RxSensorEvent>>() {
+                                    @Override
+                                    public Maybe<RxSensorEvent> apply(@NonNull Object frame) throws Exception {
+                                        return take;
+                                    }
+                                });
+                        return Flowable.merge(accumulation, perFrame);
+                    }
+                }).concatWith(take.toFlowable());
+            }
+        });
+    }
+
+    /**
+     * Samples of the current frame of a single subscription. It is written by the upstream and
+     * read by the frame signal.
+     */
+    final class Accumulator {
+        private float[] latest;
+
+        private double[] sum;
+
+        private float[] min;
+
+        private float[] max;
+
+        private float[] output;
+
+        private int count;
+
+        private Sensor sensor;
+
+        private int accuracy;
+
+        private long timestamp;
+
+        synchronized void add(RxSensorEvent event) {
+            float[] values = event.values;
+            if (latest == null) {
+                int dimension = values.length;
+                latest = new float[dimension];
+                sum = new double[dimension];
+                min = new float[dimension];
+                max = new float[dimension];
+                output = new float[mode == Mode.ENVELOPE ? 2 * dimension : dimension];
+            }
+
+            int length = Math.min(latest.length, values.length);
+            if (count == 0) {
+                for (int i = 0; i < length; i++) {
+                    sum[i] = values[i];
+                    min[i] = values[i];
+                    max[i] = values[i];
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    float value = values[i];
+                    sum[i] += value;
+                    if (value < min[i]) {
+                        min[i] = value;
+                    }
+                    if (value > max[i]) {
+                        max[i] = value;
+                    }
+                }
+            }
+            System.arraycopy(values, 0, latest, 0, length);
+
+            count++;
+            sensor = event.sensor;
+            accuracy = event.accuracy;
+            timestamp = event.timestamp;
+        }
+
+        /**
+         * @return the event of the samples accumulated since the last call, or null if there are
+         * none.
+         */
+        synchronized RxSensorEvent take() {
+            if (count == 0) {
+                return null;
+            }
+            int dimension = latest.length;
+            switch (mode) {
+                case LATEST:
+                    System.arraycopy(latest, 0, output, 0, dimension);
+                    break;
+                case MEAN:
+                    for (int i = 0; i < dimension; i++) {
+                        output[i] = (float) (sum[i] / count);
+                    }
+                    break;
+                default:
+                    System.arraycopy(min, 0, output, 0, dimension);
+                    System.arraycopy(max, 0, output, dimension, dimension);
+                    break;
+            }
+            count = 0;
+            return new RxSensorEvent(output, sensor, accuracy, timestamp);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.gvillani.rxsensors;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+
+import com.gvillani.rxsensors.internal.Preconditions;
+
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Duty-cycled source of sensor data: the sensor runs at a low sampling rate (or not at all) until
+ * a cheap trigger fires, e.g. significant motion, a step, or a threshold on the low rate samples
+ * themselves. Then it switches to the high sampling rate for a window of time, extended by any
+ * further trigger, and falls back to the low rate.
+ * <p>
+ * The switch reuses the registration path of
+ * {@link SensorEventFlowable#create(SensorManager, Sensor, int, int, Flowable, int)}: the same
+ * listener is registered again with a different sampling period, so the low and high rate
+ * segments are emitted by one continuous Flowable, with the timestamps of the sensor. Samples
+ * not newer than the previous one, delivered around a switch, are discarded.
+ * <p>
+ * Every subscription has its own gate: the high rate window of a subscription does not affect the
+ * others. The triggers set with {@link Builder#triggerOn(Flowable)} are subscribed once, while
+ * there is at least one subscription, and shared by all of them, so every item is counted once in
+ * the metrics; the threshold trigger is evaluated on the samples of each subscription. The
+ * metrics are accumulated over all the subscriptions.
+ */
+public final class GatedSensorFlowable {
+
+    private static final long DEFAULT_HIGH_RATE_WINDOW_MS = 5000;
+
+    private final SensorManager sensorManager;
+
+    private final Sensor sensor;
+
+    private final int lowSamplingPeriodUs;
+
+    private final int highSamplingPeriodUs;
+
+    private final long highRateWindowMs;
+
+    private final Predicate<? super RxSensorEvent> threshold;
+
+    /**
+     * The triggers of the builder, merged and shared by all the subscriptions.
+     */
+    private final Flowable<Object> triggers;
+
+    private final Scheduler scheduler;
+
+    private final AtomicLong triggerCount = new AtomicLong();
+
+    private final AtomicLong lowRateSamples = new AtomicLong();
+
+    private final AtomicLong highRateSamples = new AtomicLong();
+
+    /**
+     * Time of the subscriptions already terminated, guarded by this.
+     */
+    private long highRateTimeMs;
+
+    private long totalTimeMs;
+
+    /**
+     * Gates of the active subscriptions, guarded by this.
+     */
+    private final List<Gate> gates = new ArrayList<>();
+
+    private final Flowable<RxSensorEvent> events;
+
+    private GatedSensorFlowable(Builder builder) {
+        this.sensorManager = builder.sensorManager;
+        this.sensor = builder.sensor;
+        this.lowSamplingPeriodUs = builder.lowSamplingPeriodUs;
+        this.highSamplingPeriodUs = builder.highSamplingPeriodUs;
+        this.highRateWindowMs = builder.highRateWindowMs;
+        this.threshold = builder.threshold;
+        this.triggers = Flowable.merge(new ArrayList<Flowable<?>>(builder.triggers)).doOnNext(countTrigger()).share();
+        this.scheduler = builder.scheduler;
+        this.events = createFlowable();
+    }
+
+    public static class Builder {
+        private final SensorManager sensorManager;
+
+        private final Sensor sensor;
+
+        private final int lowSamplingPeriodUs;
+
+        private final int highSamplingPeriodUs;
+
+        private long highRateWindowMs = DEFAULT_HIGH_RATE_WINDOW_MS;
+
+        private Predicate<? super RxSensorEvent> threshold;
+
+        private final List<Flowable<?>> triggers = new ArrayList<>();
+
+        private Scheduler scheduler = Schedulers.computation();
+
+        /**
+         * @param sensorManager        A {@link SensorManager} object.
+         * @param sensor               The {@link Sensor Sensor} to register to.
+         * @param lowSamplingPeriodUs  Sampling period while waiting for a trigger, or
+         *                             {@link RxSensorLifecycle#NO_BACKGROUND_SAMPLING} for
+         *                             keeping the sensor off.
+         * @param highSamplingPeriodUs Sampling period after a trigger.
+         */
+        public Builder(SensorManager sensorManager, Sensor sensor, int lowSamplingPeriodUs,
+                       int highSamplingPeriodUs) {
+            this.sensorManager = sensorManager;
+            this.sensor = sensor;
+            this.lowSamplingPeriodUs = lowSamplingPeriodUs;
+            this.highSamplingPeriodUs = highSamplingPeriodUs;
+        }
+
+        /**
+         * Sets how long the sensor stays at the high sampling rate after the last trigger. The
+         * default is 5 seconds.
+         */
+        public Builder setHighRateWindow(long window, TimeUnit unit) {
+            this.highRateWindowMs = unit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * Triggers the high rate when a sample of the sensor itself satisfies the predicate,
+         * e.g. when the magnitude of the acceleration differs from gravity more than a threshold.
+         * It requires a low sampling period. The predicate is evaluated only at the low rate, so
+         * it costs nothing at the high rate, and only the other triggers extend the window.
+         */
+        public Builder triggerOnThreshold(Predicate<? super RxSensorEvent> threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * Triggers the high rate every time the provided Flowable emits an item.
+         */
+        public Builder triggerOn(Flowable<?> trigger) {
+            triggers.add(trigger);
+            return this;
+        }
+
+        /**
+         * Triggers the high rate on the significant motion sensor, see
+         * {@link Sensor#TYPE_SIGNIFICANT_MOTION}. It requires API level 18.
+         */
+        public Builder triggerOnSignificantMotion() {
+            return triggerOn(significantMotion(sensorManager));
+        }
+
+        /**
+         * Triggers the high rate on every step, see {@link Sensor#TYPE_STEP_DETECTOR}.
+         */
+        public Builder triggerOnStepDetector() {
+            Sensor stepDetector = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+            Preconditions.checkSensorExists(stepDetector);
+            return triggerOn(SensorEventFlowable.create(sensorManager, stepDetector, SensorManager.SENSOR_DELAY_NORMAL));
+        }
+
+        /**
+         * Sets the Scheduler used for timing the high rate window. The default is
+         * {@link Schedulers#computation()}.
+         */
+        public Builder setScheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public GatedSensorFlowable build() {
+            return new GatedSensorFlowable(this);
+        }
+    }
+
+    /**
+     * Creates a Flowable that emits an item every time the significant motion sensor fires. The
+     * sensor is one-shot, so it is requested again after each event.
+     *
+     * @param sensorManager A {@link SensorManager} object.
+     * @return A Flowable that emits the {@link TriggerEvent}s.
+     */
+    @TargetApi(18)
+    public static Flowable<TriggerEvent> significantMotion(final SensorManager sensorManager) {
+        return Flowable.create(new FlowableOnSubscribe<TriggerEvent>() {
+            @Override
+            public void subscribe(@NonNull final FlowableEmitter<TriggerEvent> e) throws Exception {
+                final Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+                Preconditions.checkSensorExists(sensor);
+
+                final TriggerEventListener listener = new TriggerEventListener() {
+                    @Override
+                    public void onTrigger(TriggerEvent event) {
+                        e.onNext(event);
+                        if (!e.isCancelled()) {
+                            sensorManager.requestTriggerSensor(this, sensor);
+                        }
+                    }
+                };
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        sensorManager.cancelTriggerSensor(listener, sensor);
+                    }
+                });
+                sensorManager.requestTriggerSensor(listener, sensor);
+            }
+        }, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * @return A Flowable that emits the events of the sensor, at the low or high sampling rate.
+     */
+    public Flowable<RxSensorEvent> events() {
+        return events;
+    }
+
+    /**
+     * @return a snapshot of the duty cycle metrics, accumulated over all the subscriptions.
+     */
+    public DutyCycleMetrics getMetrics() {
+        long now = scheduler.now(TimeUnit.MILLISECONDS);
+        long high;
+        long total;
+        synchronized (this) {
+            high = highRateTimeMs;
+            total = totalTimeMs;
+            for (Gate gate : gates) {
+                high += gate.highRateSinceMs >= 0 ? now - gate.highRateSinceMs : 0;
+                total += gate.startTimeMs >= 0 ? now - gate.startTimeMs : 0;
+            }
+        }
+        return new DutyCycleMetrics(triggerCount.get(), high, total, lowRateSamples.get(), highRateSamples.get());
+    }
+
+    private Consumer<Object> countTrigger() {
+        return new Consumer<Object>() {
+            @Override
+            public void accept(@NonNull Object trigger) throws Exception {
+                triggerCount.incrementAndGet();
+            }
+        };
+    }
+
+    private Flowable<RxSensorEvent> createFlowable() {
+        return gate(new Function<Flowable<Boolean>, Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> apply(@NonNull Flowable<Boolean> active) throws Exception {
+                return SensorEventFlowable.create(sensorManager, sensor, highSamplingPeriodUs, 0, active,
+                        lowSamplingPeriodUs);
+            }
+        });
+    }
+
+    /**
+     * Gates the source returned by the factory, which receives the signal of the high rate.
+     */
+    Flowable<RxSensorEvent> gate(final Function<Flowable<Boolean>, Publisher<RxSensorEvent>> source) {
+        return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> call() throws Exception {
+                final Gate gate = new Gate();
+                final PublishProcessor<Object> thresholdTriggers = PublishProcessor.create();
+
+                Flowable<Boolean> active = Flowable.merge(triggers, thresholdTriggers.doOnNext(countTrigger()))
+                        .switchMap(new Function<Object, Publisher<Boolean>>() {
+                            @Override
+                            public Publisher<Boolean> apply(@NonNull Object trigger) throws Exception {
+                                return Flowable.just(true).concatWith(Flowable.timer(highRateWindowMs,
+                                        TimeUnit.MILLISECONDS, scheduler).map(new Function<Long, Boolean>() {
+                                    @Override
+                                    public Boolean apply(@NonNull Long tick) throws Exception {
+                                        return false;
+                                    }
+                                }));
+                            }
+                        })
+                        .startWith(false)
+                        .distinctUntilChanged()
+                        .doOnNext(new Consumer<Boolean>() {
+                            @Override
+                            public void accept(@NonNull Boolean high) throws Exception {
+                                onRateChanged(gate, high);
+                            }
+                        });
+
+                final long[] lastTimestamp = {Long.MIN_VALUE};
+                return Flowable.fromPublisher(source.apply(active))
+                        .filter(new Predicate<RxSensorEvent>() {
+                            @Override
+                            public boolean test(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                                if (rxSensorEvent.timestamp <= lastTimestamp[0]) {
+                                    return false;
+                                }
+                                lastTimestamp[0] = rxSensorEvent.timestamp;
+
+                                if (gate.highRateSinceMs >= 0) {
+                                    highRateSamples.incrementAndGet();
+                                } else {
+                                    lowRateSamples.incrementAndGet();
+                                    if (threshold != null && threshold.test(rxSensorEvent)) {
+                                        thresholdTriggers.onNext(rxSensorEvent);
+                                    }
+                                }
+                                return true;
+                            }
+                        })
+                        .doFinally(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                close(gate);
+                            }
+                        });
+            }
+        });
+    }
+
+    private synchronized void onRateChanged(Gate gate, boolean high) {
+        if (gate.closed) {
+            return;
+        }
+        long now = scheduler.now(TimeUnit.MILLISECONDS);
+        if (gate.startTimeMs < 0) {
+            gate.startTimeMs = now;
+            gates.add(gate);
+        }
+        if (high && gate.highRateSinceMs < 0) {
+            gate.highRateSinceMs = now;
+        } else if (!high && gate.highRateSinceMs >= 0) {
+            highRateTimeMs += now - gate.highRateSinceMs;
+            gate.highRateSinceMs = -1;
+        }
+    }
+
+    /**
+     * Moves the open intervals of a terminated subscription into the totals.
+     */
+    private synchronized void close(Gate gate) {
+        onRateChanged(gate, false);
+        gate.closed = true;
+        if (gates.remove(gate)) {
+            totalTimeMs += scheduler.now(TimeUnit.MILLISECONDS) - gate.startTimeMs;
+        }
+    }
+
+    /**
+     * Gating state of a single subscription.
+     */
+    static final class Gate {
+        long startTimeMs = -1;
+
+        /**
+         * Read without the lock by the filter of the samples.
+         */
+        volatile long highRateSinceMs = -1;
+
+        boolean closed;
+    }
+
+    /**
+     * Metrics of the duty cycle of a {@link GatedSensorFlowable}.
+     */
+    public static final class DutyCycleMetrics {
+        public final long triggers;
+
+        public final long highRateTimeMs;
+
+        public final long totalTimeMs;
+
+        public final long lowRateSamples;
+
+        public final long highRateSamples;
+
+        DutyCycleMetrics(long triggers, long highRateTimeMs, long totalTimeMs, long lowRateSamples,
+                         long highRateSamples) {
+            this.triggers = triggers;
+            this.highRateTimeMs = highRateTimeMs;
+            this.totalTimeMs = totalTimeMs;
+            this.lowRateSamples = lowRateSamples;
+            this.highRateSamples = highRateSamples;
+        }
+
+        /**
+         * @return the fraction of time spent at the high sampling rate, between 0 and 1.
+         */
+        public float getDutyCycle() {
+            return totalTimeMs > 0 ? (float) highRateTimeMs / totalTimeMs : 0F;
+        }
+    }
+}
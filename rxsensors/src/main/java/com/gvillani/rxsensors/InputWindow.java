@@ -0,0 +1,59 @@
+package com.gvillani.rxsensors;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A window of consecutive samples, produced by {@link InputWindowTransformer}, ready to be fed to
+ * an inference engine. The samples are stored row by row (sample after sample, all the channels
+ * of a sample next to each other) in a direct buffer with native byte order.
+ * <p>
+ * The window is a view on the ring buffer of the transformer, not a copy: it is valid only until
+ * the ring wraps around, see {@link InputWindowTransformer.Builder#setWindowsInFlight(int)}.
+ * Operators that queue the items, like observeOn or blockingForEach, keep windows in flight as
+ * well.
+ */
+public final class InputWindow {
+
+    private final ByteBuffer ring;
+
+    private final int byteOffset;
+
+    private final int byteLength;
+
+    /**
+     * The time in nanosecond of the first sample of the window.
+     */
+    public final long startTimestamp;
+
+    /**
+     * The time in nanosecond of the last sample of the window.
+     */
+    public final long endTimestamp;
+
+    InputWindow(ByteBuffer ring, int byteOffset, int byteLength, long startTimestamp, long endTimestamp) {
+        this.ring = ring;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+    }
+
+    /**
+     * @return a new ByteBuffer view of the window, with position zero and native byte order.
+     */
+    public ByteBuffer asByteBuffer() {
+        ByteBuffer view = ring.duplicate();
+        view.limit(byteOffset + byteLength);
+        view.position(byteOffset);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return a new FloatBuffer view of the window, with position zero.
+     */
+    public FloatBuffer asFloatBuffer() {
+        return asByteBuffer().asFloatBuffer();
+    }
+}
@@ -0,0 +1,177 @@
+package com.gvillani.rxsensors;
+
+import org.reactivestreams.Publisher;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Groups a stream of {@link RxSensorEvent} in overlapping windows of fixed size, the typical
+ * input of an activity recognition model. Every sample is written, already normalized, into a
+ * direct ring buffer, and the windows are emitted as views on it, so overlapping windows cost no
+ * extra copies.
+ * <p>
+ * The first samples of the ring are mirrored after its end, so that every window is contiguous
+ * even when the ring wraps around: the cost is one additional write for windowSize samples out
+ * of the ring capacity.
+ * <p>
+ * The input is expected at a fixed rate, see {@link FixedRateResampler}. The channels missing
+ * from an event with fewer values are written as 0, i.e. the mean of the channel if there is a
+ * normalization.
+ */
+public final class InputWindowTransformer implements FlowableTransformer<RxSensorEvent, InputWindow> {
+
+    private static final int DEFAULT_WINDOWS_IN_FLIGHT = 2;
+
+    private final int windowSize;
+
+    private final int hop;
+
+    private final int channels;
+
+    private final int windowsInFlight;
+
+    private final float[] offsets;
+
+    private final float[] scales;
+
+    private InputWindowTransformer(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.hop = builder.hop;
+        this.channels = builder.channels;
+        this.windowsInFlight = builder.windowsInFlight;
+        this.offsets = new float[channels];
+        this.scales = new float[channels];
+        for (int i = 0; i < channels; i++) {
+            offsets[i] = builder.mean != null ? builder.mean[i] : 0F;
+            scales[i] = builder.std != null ? 1F / builder.std[i] : 1F;
+        }
+    }
+
+    public static class Builder {
+        private final int windowSize;
+
+        private final int hop;
+
+        private final int channels;
+
+        private int windowsInFlight = DEFAULT_WINDOWS_IN_FLIGHT;
+
+        private float[] mean;
+
+        private float[] std;
+
+        /**
+         * @param windowSize Number of samples of every window.
+         * @param hop        Number of samples between the start of two consecutive windows, e.g.
+         *                   windowSize / 2 for a 50% overlap.
+         * @param channels   Number of values taken from every event, e.g. 6 for accelerometer and
+         *                   gyroscope values combined in the same event.
+         */
+        public Builder(int windowSize, int hop, int channels) {
+            if (windowSize <= 0 || hop <= 0 || channels <= 0) {
+                throw new IllegalArgumentException("windowSize, hop and channels must be > 0");
+            }
+            this.windowSize = windowSize;
+            this.hop = hop;
+            this.channels = channels;
+        }
+
+        /**
+         * Normalizes every channel inline, as (value - mean) / std. Every std must be > 0.
+         */
+        public Builder setNormalization(float[] mean, float[] std) {
+            if (mean.length != channels || std.length != channels) {
+                throw new IllegalArgumentException("mean and std must have one value for each channel");
+            }
+            for (float value : std) {
+                if (!(value > 0) || Float.isInfinite(value)) {
+                    throw new IllegalArgumentException("std must be > 0 and finite but it was " + value);
+                }
+            }
+            this.mean = mean.clone();
+            this.std = std.clone();
+            return this;
+        }
+
+        /**
+         * Sets how many windows can be emitted after a window before its content is overwritten.
+         * It defines the size of the ring buffer. The default is 2.
+         */
+        public Builder setWindowsInFlight(int windowsInFlight) {
+            if (windowsInFlight < 0) {
+                throw new IllegalArgumentException("windowsInFlight >= 0 required but it was " + windowsInFlight);
+            }
+            this.windowsInFlight = windowsInFlight;
+            return this;
+        }
+
+        public InputWindowTransformer build() {
+            return new InputWindowTransformer(this);
+        }
+    }
+
+    @Override
+    public Publisher<InputWindow> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+        return Flowable.defer(new Callable<Publisher<InputWindow>>() {
+            @Override
+            public Publisher<InputWindow> call() throws Exception {
+                final Ring ring = new Ring();
+                return upstream.concatMapIterable(new Function<RxSensorEvent, Iterable<InputWindow>>() {
+                    @Override
+                    public Iterable<InputWindow> apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        return ring.add(rxSensorEvent);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ring of capacity samples, followed by the mirror of its first windowSize samples.
+     */
+    final class Ring {
+        private final int capacity = windowSize + Math.max(windowsInFlight, 1) * hop;
+
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect((capacity + windowSize) * channels * 4)
+                .order(ByteOrder.nativeOrder());
+
+        private final FloatBuffer floats = bytes.asFloatBuffer();
+
+        private final long[] timestamps = new long[capacity];
+
+        private long written;
+
+        List<InputWindow> add(RxSensorEvent event) {
+            int position = (int) (written % capacity);
+            int length = Math.min(channels, event.values.length);
+            for (int i = 0; i < channels; i++) {
+                float value = i < length ? (event.values[i] - offsets[i]) * scales[i] : 0F;
+                floats.put(position * channels + i, value);
+                if (position < windowSize) {
+                    floats.put((capacity + position) * channels + i, value);
+                }
+            }
+            timestamps[position] = event.timestamp;
+            written++;
+
+            if (written < windowSize || (written - windowSize) % hop != 0) {
+                return Collections.emptyList();
+            }
+
+            int start = (int) ((written - windowSize) % capacity);
+            InputWindow window = new InputWindow(bytes, start * channels * 4, windowSize * channels * 4,
+                    timestamps[start], event.timestamp);
+            return Collections.singletonList(window);
+        }
+    }
+}
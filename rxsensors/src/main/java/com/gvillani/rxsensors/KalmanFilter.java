@@ -0,0 +1,346 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.SensorManager;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.Callable;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+/**
+ * Kalman filter for the values of a stream of {@link RxSensorEvent}, with an independent filter
+ * for every axis. The time between two samples is taken from the timestamps of the events, so
+ * irregular streams are handled correctly.
+ * <p>
+ * The state of all the axes lives in primitive arrays allocated on the first event, and the
+ * small matrix products are written out by hand, so no object is allocated per sample. The
+ * values of the events are replaced in place by the estimates, as in
+ * {@link RxSensorTransformer#lowPassFilter(float)}.
+ * <p>
+ * See {@link #altitude(Flowable, Flowable, float, float)} for the fusion of barometer and
+ * accelerometer.
+ */
+public final class KalmanFilter implements FlowableTransformer<RxSensorEvent, RxSensorEvent> {
+
+    public enum Model {
+        /**
+         * The value is constant, apart from a random walk. The process noise is the variance
+         * gained by the value in one second.
+         */
+        CONSTANT_POSITION,
+        /**
+         * The value changes with a constant rate, apart from random accelerations. The process
+         * noise is the variance of the acceleration (the second derivative of the value).
+         */
+        CONSTANT_VELOCITY
+    }
+
+    private static final float DEFAULT_PROCESS_NOISE = 0.01F;
+
+    private static final float DEFAULT_MEASUREMENT_NOISE = 0.1F;
+
+    private static final double INITIAL_VELOCITY_VARIANCE = 1;
+
+    private static final float GRAVITY_LPF_PARAMETER = 0.05F;
+
+    /**
+     * The magnitude of the gravity is filtered much more slowly than its direction, so that it
+     * learns the scale error of the accelerometer but not a sustained vertical acceleration.
+     */
+    private static final float GRAVITY_MAGNITUDE_LPF_PARAMETER = 0.001F;
+
+    private final Model model;
+
+    private final double processNoise;
+
+    private final double measurementNoise;
+
+    private KalmanFilter(Builder builder) {
+        this.model = builder.model;
+        this.processNoise = builder.processNoise;
+        this.measurementNoise = builder.measurementNoise;
+    }
+
+    public static class Builder {
+        private final Model model;
+
+        private float processNoise = DEFAULT_PROCESS_NOISE;
+
+        private float measurementNoise = DEFAULT_MEASUREMENT_NOISE;
+
+        public Builder(Model model) {
+            this.model = model;
+        }
+
+        /**
+         * Sets the process noise, see {@link Model} for its meaning. It must be >= 0, and the
+         * default is 0.01.
+         */
+        public Builder setProcessNoise(float processNoise) {
+            if (!(processNoise >= 0) || Float.isInfinite(processNoise)) {
+                throw new IllegalArgumentException("processNoise >= 0 required but it was " + processNoise);
+            }
+            this.processNoise = processNoise;
+            return this;
+        }
+
+        /**
+         * Sets the variance of the measurement noise of the sensor. It must be > 0, and the
+         * default is 0.1.
+         */
+        public Builder setMeasurementNoise(float measurementNoise) {
+            if (!(measurementNoise > 0) || Float.isInfinite(measurementNoise)) {
+                throw new IllegalArgumentException("measurementNoise > 0 required but it was " + measurementNoise);
+            }
+            this.measurementNoise = measurementNoise;
+            return this;
+        }
+
+        public KalmanFilter build() {
+            return new KalmanFilter(this);
+        }
+    }
+
+    @Override
+    public Publisher<RxSensorEvent> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+        return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> call() throws Exception {
+                final AxisStates states = new AxisStates();
+                return upstream.map(new Function<RxSensorEvent, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        states.filter(rxSensorEvent.values, rxSensorEvent.timestamp);
+                        return rxSensorEvent;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Estimates altitude and vertical speed fusing the barometer, precise in the long term, with
+     * the accelerometer, responsive in the short term. The vertical acceleration is the
+     * projection of the acceleration on the direction of the gravity, estimated by a low pass
+     * filter, minus the magnitude of that gravity, filtered again more slowly; it drives
+     * the prediction, while the altitude computed from the pressure is the measurement.
+     * <p>
+     * An estimate is emitted for every pressure event, with the values altitude (m) and vertical
+     * speed (m/s). A pressure event older than the last accelerometer event updates the estimate
+     * as if it was taken at the time of the accelerometer event.
+     *
+     * @param pressure            Events of {@link android.hardware.Sensor#TYPE_PRESSURE}, in hPa.
+     * @param accelerometer       Events of {@link android.hardware.Sensor#TYPE_ACCELEROMETER}.
+     * @param accelerationNoise   Variance of the vertical acceleration, in (m/s^2)^2, >= 0.
+     * @param altitudeNoise       Variance of the altitude computed from the pressure, in m^2, > 0.
+     * @return A Flowable that emits the estimates.
+     */
+    public static Flowable<RxSensorEvent> altitude(final Flowable<RxSensorEvent> pressure,
+                                                   final Flowable<RxSensorEvent> accelerometer,
+                                                   final float accelerationNoise, final float altitudeNoise) {
+        return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> call() throws Exception {
+                final AltitudeState state = new AltitudeState(accelerationNoise, altitudeNoise);
+
+                Flowable<RxSensorEvent> predictions = accelerometer.doOnNext(new Consumer<RxSensorEvent>() {
+                    @Override
+                    public void accept(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        state.accelerate(rxSensorEvent.values, rxSensorEvent.timestamp);
+                    }
+                }).ignoreElements().toFlowable();
+
+                Flowable<RxSensorEvent> estimates = pressure.map(new Function<RxSensorEvent, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        float altitude = pressureToAltitude(rxSensorEvent.values[0]);
+                        float[] estimate = new float[2];
+                        state.measure(altitude, rxSensorEvent.timestamp, estimate);
+                        return new RxSensorEvent(estimate, rxSensorEvent.sensor, rxSensorEvent.accuracy,
+                                rxSensorEvent.timestamp);
+                    }
+                });
+
+                return Flowable.merge(predictions, estimates);
+            }
+        });
+    }
+
+    /**
+     * The formula of {@link SensorManager#getAltitude(float, float)} at the standard atmosphere,
+     * written out so that it runs in JVM tests, where the Android methods are stubs.
+     */
+    static float pressureToAltitude(float pressure) {
+        return 44330F * (1F - (float) Math.pow(pressure / SensorManager.PRESSURE_STANDARD_ATMOSPHERE, 1F / 5.255F));
+    }
+
+    /**
+     * State of a single subscription: value (x0), rate (x1) and covariance (p00, p01, p11) of
+     * every axis.
+     */
+    final class AxisStates {
+        private double[] x0;
+
+        private double[] x1;
+
+        private double[] p00;
+
+        private double[] p01;
+
+        private double[] p11;
+
+        private long lastTimestamp;
+
+        void filter(float[] values, long timestamp) {
+            if (x0 == null) {
+                int dimension = values.length;
+                x0 = new double[dimension];
+                x1 = new double[dimension];
+                p00 = new double[dimension];
+                p01 = new double[dimension];
+                p11 = new double[dimension];
+                for (int i = 0; i < dimension; i++) {
+                    x0[i] = values[i];
+                    p00[i] = measurementNoise;
+                    p11[i] = INITIAL_VELOCITY_VARIANCE;
+                }
+                lastTimestamp = timestamp;
+                return;
+            }
+
+            double dt = Math.max(0, timestamp - lastTimestamp) / 1e9;
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+
+            int length = Math.min(x0.length, values.length);
+            if (model == Model.CONSTANT_POSITION) {
+                double q = processNoise * dt;
+                for (int i = 0; i < length; i++) {
+                    double p = p00[i] + q;
+                    double k = p / (p + measurementNoise);
+                    x0[i] += k * (values[i] - x0[i]);
+                    p00[i] = (1 - k) * p;
+                    values[i] = (float) x0[i];
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    predictConstantVelocity(i, dt, 0);
+                    update(i, values[i]);
+                    values[i] = (float) x0[i];
+                }
+            }
+        }
+
+        /**
+         * x = F x + B a, P = F P F' + Q, with F = [1 dt; 0 1], B = [dt^2/2; dt] and Q = B q B'.
+         */
+        void predictConstantVelocity(int i, double dt, double acceleration) {
+            double dt2 = dt * dt;
+            double q = processNoise;
+
+            x0[i] += x1[i] * dt + acceleration * dt2 / 2;
+            x1[i] += acceleration * dt;
+
+            double a = p00[i];
+            double b = p01[i];
+            double c = p11[i];
+            p00[i] = a + dt * (2 * b + dt * c) + q * dt2 * dt2 / 4;
+            p01[i] = b + dt * c + q * dt2 * dt / 2;
+            p11[i] = c + q * dt2;
+        }
+
+        /**
+         * Measurement of the value, H = [1 0].
+         */
+        void update(int i, double z) {
+            double a = p00[i];
+            double b = p01[i];
+            double s = a + measurementNoise;
+            double k0 = a / s;
+            double k1 = b / s;
+            double y = z - x0[i];
+
+            x0[i] += k0 * y;
+            x1[i] += k1 * y;
+            p00[i] = (1 - k0) * a;
+            p01[i] = (1 - k0) * b;
+            p11[i] -= k1 * b;
+        }
+    }
+
+    /**
+     * State of an altitude estimation, a constant velocity filter on a single axis driven by the
+     * vertical acceleration. It is shared by the accelerometer and the barometer callbacks.
+     */
+    static final class AltitudeState {
+        private final AxisStates axis;
+
+        private final float[] gravity = new float[3];
+
+        private double gravityMagnitude;
+
+        private boolean hasGravity;
+
+        private boolean hasAltitude;
+
+        private double acceleration;
+
+        private long lastTimestamp;
+
+        AltitudeState(float accelerationNoise, float altitudeNoise) {
+            KalmanFilter filter = new Builder(Model.CONSTANT_VELOCITY)
+                    .setProcessNoise(accelerationNoise)
+                    .setMeasurementNoise(altitudeNoise)
+                    .build();
+            this.axis = filter.new AxisStates();
+        }
+
+        synchronized void accelerate(float[] values, long timestamp) {
+            if (!hasGravity) {
+                System.arraycopy(values, 0, gravity, 0, 3);
+            } else {
+                for (int i = 0; i < 3; i++) {
+                    gravity[i] += GRAVITY_LPF_PARAMETER * (values[i] - gravity[i]);
+                }
+            }
+
+            double g = Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+            if (g == 0) {
+                return;
+            }
+            if (!hasGravity) {
+                gravityMagnitude = g;
+                hasGravity = true;
+            } else {
+                gravityMagnitude += GRAVITY_MAGNITUDE_LPF_PARAMETER * (g - gravityMagnitude);
+            }
+            predictTo(timestamp);
+            acceleration = (values[0] * gravity[0] + values[1] * gravity[1] + values[2] * gravity[2]) / g
+                    - gravityMagnitude;
+        }
+
+        synchronized void measure(float altitude, long timestamp, float[] estimate) {
+            if (!hasAltitude) {
+                axis.filter(new float[]{altitude}, timestamp);
+                lastTimestamp = timestamp;
+                hasAltitude = true;
+            } else {
+                predictTo(timestamp);
+                axis.update(0, altitude);
+            }
+            estimate[0] = (float) axis.x0[0];
+            estimate[1] = (float) axis.x1[0];
+        }
+
+        private void predictTo(long timestamp) {
+            if (hasAltitude && timestamp > lastTimestamp) {
+                axis.predictConstantVelocity(0, (timestamp - lastTimestamp) / 1e9, acceleration);
+                lastTimestamp = timestamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.gvillani.rxsensors;
+
+import org.reactivestreams.Publisher;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Calibrates the magnetometer while it is used: every sample updates an ellipsoid fit of the
+ * readings, and is corrected in place with the current fit, removing the hard iron offset (the
+ * center of the ellipsoid) and the soft iron distortion (its shape):
+ * <pre>
+ * corrected = gain * (raw - offset)
+ * </pre>
+ * The fit is a recursive least squares (RLS) estimate of the 9 parameters of the general
+ * ellipsoid, so the memory is constant and the cost per sample is fixed, no matter how long it
+ * runs. The offset and the gain are derived from the parameters every few samples; until the
+ * samples cover enough directions for a valid ellipsoid the events pass unchanged.
+ * <p>
+ * The state belongs to the calibrator, so it should be applied to a single stream, e.g. of
+ * {@link android.hardware.Sensor#TYPE_MAGNETIC_FIELD_UNCALIBRATED}, and it can be read from any
+ * thread with {@link #getCalibration()}.
+ */
+public final class MagneticCalibrator implements FlowableTransformer<RxSensorEvent, RxSensorEvent> {
+
+    private static final int PARAMETERS = 9;
+
+    private static final int DEFAULT_UPDATE_INTERVAL = 10;
+
+    private static final double INITIAL_COVARIANCE = 1e4;
+
+    private static final double RESIDUAL_EMA_PARAMETER = 0.01;
+
+    /**
+     * With forgetting factor lambda, a sample updates the fit only if phi' P phi is greater than
+     * this times 1 - lambda: the information of a direction repeated over and over saturates
+     * after a few hundred samples, instead of growing forever.
+     */
+    private static final double MIN_INFORMATION = 3;
+
+    /**
+     * Residual above which the calibration is discarded and the fit starts over.
+     */
+    private static final double MAX_RESIDUAL = 0.2;
+
+    /**
+     * Ellipsoids more eccentric than this are rejected, as a sign of samples on a plane.
+     */
+    private static final double MAX_AXIS_RATIO = 10;
+
+    private static final int JACOBI_SWEEPS = 16;
+
+    private final double forgettingFactor;
+
+    private final int updateInterval;
+
+    private final double[] theta = new double[PARAMETERS];
+
+    private final double[] covariance = new double[PARAMETERS * PARAMETERS];
+
+    private final double[] phi = new double[PARAMETERS];
+
+    private final double[] gainVector = new double[PARAMETERS];
+
+    private final double[] matrix = new double[9];
+
+    private final double[] eigenvectors = new double[9];
+
+    private final double[] eigenvalues = new double[3];
+
+    private final float[] offset = new float[3];
+
+    private final float[] gain = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+    private final float[] corrected = new float[3];
+
+    private double scale;
+
+    private float fieldStrength;
+
+    private boolean valid;
+
+    private long samples;
+
+    private double meanSquaredResidual;
+
+    private double prediction;
+
+    private volatile Calibration calibration = new Calibration(new float[3], new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1},
+            0, false, 0, Float.NaN);
+
+    private MagneticCalibrator(Builder builder) {
+        this.forgettingFactor = builder.forgettingFactor;
+        this.updateInterval = builder.updateInterval;
+        for (int i = 0; i < PARAMETERS; i++) {
+            covariance[i * PARAMETERS + i] = INITIAL_COVARIANCE;
+        }
+    }
+
+    public static class Builder {
+        private double forgettingFactor = 1;
+
+        private int updateInterval = DEFAULT_UPDATE_INTERVAL;
+
+        /**
+         * Sets the forgetting factor of the RLS, between 0 (excluded) and 1. With 1, the default,
+         * all the samples weigh the same; with lower values, e.g. 0.999, the old samples are
+         * progressively forgotten, so the fit follows a change of the environment. The samples
+         * that bring no new information are skipped, so the calibration survives a long period
+         * without rotations, e.g. of a device mounted in a vehicle.
+         */
+        public Builder setForgettingFactor(float forgettingFactor) {
+            if (!(forgettingFactor > 0 && forgettingFactor <= 1)) {
+                throw new IllegalArgumentException("forgettingFactor in (0, 1] required but it was " + forgettingFactor);
+            }
+            this.forgettingFactor = forgettingFactor;
+            return this;
+        }
+
+        /**
+         * Sets every how many samples the correction is derived from the fit. The default is 10.
+         */
+        public Builder setUpdateInterval(int updateInterval) {
+            if (updateInterval <= 0) {
+                throw new IllegalArgumentException("updateInterval > 0 required but it was " + updateInterval);
+            }
+            this.updateInterval = updateInterval;
+            return this;
+        }
+
+        public MagneticCalibrator build() {
+            return new MagneticCalibrator(this);
+        }
+    }
+
+    @Override
+    public Publisher<RxSensorEvent> apply(@NonNull Flowable<RxSensorEvent> upstream) {
+        return upstream.map(new Function<RxSensorEvent, RxSensorEvent>() {
+            @Override
+            public RxSensorEvent apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                add(rxSensorEvent.values);
+                correct(rxSensorEvent.values);
+                return rxSensorEvent;
+            }
+        });
+    }
+
+    /**
+     * @return the current calibration.
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Updates the fit with a sample. It must be called by one thread at a time.
+     */
+    public void add(float[] values) {
+        if (scale == 0) {
+            double magnitude = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+            if (magnitude == 0) {
+                return;
+            }
+            scale = magnitude;
+        }
+
+        double x = values[0] / scale;
+        double y = values[1] / scale;
+        double z = values[2] / scale;
+        phi[0] = x * x;
+        phi[1] = y * y;
+        phi[2] = z * z;
+        phi[3] = 2 * x * y;
+        phi[4] = 2 * x * z;
+        phi[5] = 2 * y * z;
+        phi[6] = 2 * x;
+        phi[7] = 2 * y;
+        phi[8] = 2 * z;
+
+        // with forgetting, a sample that brings no new information, e.g. any sample of a device
+        // that stays still, is skipped: dividing P by lambda would only inflate it in the
+        // directions the sample does not cover, until the noise or the overflow destroys the fit
+        double information = predict();
+        boolean informative = information > MIN_INFORMATION * (1 - forgettingFactor);
+        if (informative) {
+            samples++;
+            if (!updateLeastSquares(information)) {
+                reset();
+                return;
+            }
+        }
+
+        if (valid) {
+            float[] corrected = this.corrected;
+            System.arraycopy(values, 0, corrected, 0, 3);
+            correct(corrected);
+            double residual = Math.sqrt(corrected[0] * corrected[0] + corrected[1] * corrected[1]
+                    + corrected[2] * corrected[2]) / fieldStrength - 1;
+            meanSquaredResidual += RESIDUAL_EMA_PARAMETER * (residual * residual - meanSquaredResidual);
+            if (meanSquaredResidual > MAX_RESIDUAL * MAX_RESIDUAL) {
+                // the corrected field no longer has a constant magnitude: the environment changed
+                reset();
+                return;
+            }
+        }
+
+        if (informative && samples % updateInterval == 0) {
+            updateCorrection();
+        }
+    }
+
+    /**
+     * Applies the current correction to the first three values.
+     */
+    public void correct(float[] values) {
+        if (!valid) {
+            return;
+        }
+        float x = values[0] - offset[0];
+        float y = values[1] - offset[1];
+        float z = values[2] - offset[2];
+        values[0] = gain[0] * x + gain[1] * y + gain[2] * z;
+        values[1] = gain[3] * x + gain[4] * y + gain[5] * z;
+        values[2] = gain[6] * x + gain[7] * y + gain[8] * z;
+    }
+
+    /**
+     * Computes P phi, in gainVector, and the prediction phi' theta.
+     *
+     * @return phi' P phi, the variance of the prediction relative to the noise, i.e. how much a
+     * sample in the direction of phi can still change the fit.
+     */
+    private double predict() {
+        double information = 0;
+        double prediction = 0;
+        for (int i = 0; i < PARAMETERS; i++) {
+            double sum = 0;
+            int row = i * PARAMETERS;
+            for (int j = 0; j < PARAMETERS; j++) {
+                sum += covariance[row + j] * phi[j];
+            }
+            gainVector[i] = sum;
+            information += phi[i] * sum;
+            prediction += phi[i] * theta[i];
+        }
+        this.prediction = prediction;
+        return information;
+    }
+
+    /**
+     * One RLS step for phi . theta = 1, after {@link #predict()}:
+     * k = P phi / (lambda + phi' P phi), theta += k (1 - phi' theta), P = (P - k phi' P) / lambda.
+     *
+     * @return false if the fit is no longer finite.
+     */
+    private boolean updateLeastSquares(double information) {
+        double denominator = forgettingFactor + information;
+        double error = 1 - prediction;
+        boolean finite = true;
+        for (int i = 0; i < PARAMETERS; i++) {
+            theta[i] += gainVector[i] / denominator * error;
+            finite &= !Double.isNaN(theta[i]) && !Double.isInfinite(theta[i]);
+        }
+
+        for (int i = 0; i < PARAMETERS; i++) {
+            int row = i * PARAMETERS;
+            double gi = gainVector[i] / denominator;
+            for (int j = i; j < PARAMETERS; j++) {
+                double value = (covariance[row + j] - gi * gainVector[j]) / forgettingFactor;
+                covariance[row + j] = value;
+                covariance[j * PARAMETERS + i] = value;
+            }
+            double variance = covariance[row + i];
+            finite &= variance > 0 && !Double.isInfinite(variance);
+        }
+        return finite;
+    }
+
+    /**
+     * Discards the fit and publishes an invalid calibration; the events pass unchanged until
+     * the new samples cover enough directions again.
+     */
+    private void reset() {
+        for (int i = 0; i < PARAMETERS; i++) {
+            theta[i] = 0;
+            for (int j = 0; j < PARAMETERS; j++) {
+                covariance[i * PARAMETERS + j] = i == j ? INITIAL_COVARIANCE : 0;
+            }
+        }
+        valid = false;
+        samples = 0;
+        meanSquaredResidual = 0;
+        calibration = new Calibration(new float[3], new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, 0, false, 0, Float.NaN);
+    }
+
+    /**
+     * Derives offset and gain from the parameters. With M the quadratic part and v the linear
+     * part, the center is c = -M^-1 v and the ellipsoid is (x - c)' A (x - c) = 1 with
+     * A = M / (1 + c' M c), valid if A is positive definite. The gain is sqrt(A), scaled so that
+     * the corrected field has the magnitude of the sphere with the same volume as the ellipsoid.
+     */
+    private void updateCorrection() {
+        double a = theta[0];
+        double b = theta[1];
+        double c = theta[2];
+        double d = theta[3];
+        double e = theta[4];
+        double f = theta[5];
+
+        double c00 = b * c - f * f;
+        double c01 = e * f - d * c;
+        double c02 = d * f - b * e;
+        double c11 = a * c - e * e;
+        double c12 = d * e - a * f;
+        double c22 = a * b - d * d;
+        double determinant = a * c00 + d * c01 + e * c02;
+        if (determinant == 0) {
+            return;
+        }
+
+        double cx = -(c00 * theta[6] + c01 * theta[7] + c02 * theta[8]) / determinant;
+        double cy = -(c01 * theta[6] + c11 * theta[7] + c12 * theta[8]) / determinant;
+        double cz = -(c02 * theta[6] + c12 * theta[7] + c22 * theta[8]) / determinant;
+        double k = 1 - (theta[6] * cx + theta[7] * cy + theta[8] * cz);
+        if (k == 0) {
+            return;
+        }
+
+        matrix[0] = a / k;
+        matrix[1] = d / k;
+        matrix[2] = e / k;
+        matrix[3] = d / k;
+        matrix[4] = b / k;
+        matrix[5] = f / k;
+        matrix[6] = e / k;
+        matrix[7] = f / k;
+        matrix[8] = c / k;
+        eigenDecomposition();
+
+        double min = Math.min(eigenvalues[0], Math.min(eigenvalues[1], eigenvalues[2]));
+        double max = Math.max(eigenvalues[0], Math.max(eigenvalues[1], eigenvalues[2]));
+        if (!(min > 0) || max / min > MAX_AXIS_RATIO * MAX_AXIS_RATIO) {
+            return;
+        }
+
+        double radius = Math.pow(eigenvalues[0] * eigenvalues[1] * eigenvalues[2], -1.0 / 6);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double sum = 0;
+                for (int n = 0; n < 3; n++) {
+                    sum += eigenvectors[i * 3 + n] * Math.sqrt(eigenvalues[n]) * eigenvectors[j * 3 + n];
+                }
+                gain[i * 3 + j] = (float) (radius * sum);
+            }
+        }
+        offset[0] = (float) (cx * scale);
+        offset[1] = (float) (cy * scale);
+        offset[2] = (float) (cz * scale);
+        fieldStrength = (float) (radius * scale);
+        if (!valid) {
+            valid = true;
+            meanSquaredResidual = 0;
+        }
+
+        calibration = new Calibration(offset.clone(), gain.clone(), fieldStrength, true, samples,
+                (float) Math.sqrt(meanSquaredResidual));
+    }
+
+    /**
+     * Cyclic Jacobi on the symmetric matrix: the eigenvalues end on the diagonal, and the
+     * rotations accumulate the eigenvectors in the columns of eigenvectors.
+     */
+    private void eigenDecomposition() {
+        double[] m = matrix;
+        double[] v = eigenvectors;
+        for (int i = 0; i < 9; i++) {
+            v[i] = i % 4 == 0 ? 1 : 0;
+        }
+
+        for (int sweep = 0; sweep < JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = m[1] * m[1] + m[2] * m[2] + m[5] * m[5];
+            if (offDiagonal < 1e-24) {
+                break;
+            }
+            rotate(0, 1);
+            rotate(0, 2);
+            rotate(1, 2);
+        }
+        eigenvalues[0] = m[0];
+        eigenvalues[1] = m[4];
+        eigenvalues[2] = m[8];
+    }
+
+    private void rotate(int p, int q) {
+        double[] m = matrix;
+        double apq = m[p * 3 + q];
+        if (apq == 0) {
+            return;
+        }
+        double theta = (m[q * 3 + q] - m[p * 3 + p]) / (2 * apq);
+        double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+        if (theta == 0) {
+            t = 1;
+        }
+        double c = 1 / Math.sqrt(t * t + 1);
+        double s = t * c;
+
+        for (int k = 0; k < 3; k++) {
+            double mkp = m[k * 3 + p];
+            double mkq = m[k * 3 + q];
+            m[k * 3 + p] = c * mkp - s * mkq;
+            m[k * 3 + q] = s * mkp + c * mkq;
+        }
+        for (int k = 0; k < 3; k++) {
+            double mpk = m[p * 3 + k];
+            double mqk = m[q * 3 + k];
+            m[p * 3 + k] = c * mpk - s * mqk;
+            m[q * 3 + k] = s * mpk + c * mqk;
+        }
+        for (int k = 0; k < 3; k++) {
+            double vkp = eigenvectors[k * 3 + p];
+            double vkq = eigenvectors[k * 3 + q];
+            eigenvectors[k * 3 + p] = c * vkp - s * vkq;
+            eigenvectors[k * 3 + q] = s * vkp + c * vkq;
+        }
+    }
+
+    /**
+     * A snapshot of the calibration of a {@link MagneticCalibrator}.
+     */
+    public static final class Calibration {
+        /**
+         * Hard iron offset, in the unit of the samples.
+         */
+        public final float[] offset;
+
+        /**
+         * Soft iron correction, a 3x3 matrix in row-major order.
+         */
+        public final float[] gain;
+
+        /**
+         * Magnitude of the corrected field.
+         */
+        public final float fieldStrength;
+
+        /**
+         * False until the samples are enough for an ellipsoid fit; until then the correction is
+         * the identity.
+         */
+        public final boolean valid;
+
+        /**
+         * Number of samples the fit is based on.
+         */
+        public final long samples;
+
+        /**
+         * Root mean square of the relative deviation of the magnitude of the recent corrected
+         * samples from the field strength: 0 for a perfect fit, a few percent for a good one.
+         */
+        public final float residual;
+
+        Calibration(float[] offset, float[] gain, float fieldStrength, boolean valid, long samples, float residual) {
+            this.offset = offset;
+            this.gain = gain;
+            this.fieldStrength = fieldStrength;
+            this.valid = valid;
+            this.samples = samples;
+            this.residual = residual;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.gvillani.rxsensors;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.Callable;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+/**
+ * Removes isolated spikes from a stream of {@link RxSensorEvent}, axis by axis, looking at a
+ * sliding window of the last samples (the current one included).
+ * <p>
+ * As a running median filter every value is replaced by the median of its window. As a Hampel
+ * filter a value is replaced by the median only if it is farther from it than a threshold times
+ * the standard deviation estimated by the median absolute deviation (MAD); the other values are
+ * left untouched. Unlike the low pass filter, a spike shorter than half window does not leak in
+ * the output.
+ * <p>
+ * The windows are ordered structures of primitives, so the median costs O(log n) per sample and
+ * the MAD O(log^2 n), even for windows of hundreds of samples. The values of the events are
+ * replaced in place, as in {@link RxSensorTransformer#lowPassFilter(float)}; NaN values pass
+ * through and are not added to the window.
+ */
+public final class MedianFilter implements FlowableTransformer<RxSensorEvent, RxSensorEvent> {
+
+    private final int windowSize;
+
+    private final float hampelThreshold;
+
+    private MedianFilter(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.hampelThreshold = builder.hampelThreshold;
+    }
+
+    public static class Builder {
+        private final int windowSize;
+
+        private float hampelThreshold = Float.NaN;
+
+        /**
+         * @param windowSize Number of samples of the window.
+         */
+        public Builder(int windowSize) {
+            if (windowSize <= 0) {
+                throw new IllegalArgumentException("windowSize > 0 required but it was " + windowSize);
+            }
+            this.windowSize = windowSize;
+        }
+
+        /**
+         * Turns the filter in a Hampel filter: only the values farther from the median than
+         * threshold standard deviations are replaced. A common threshold is 3.
+         */
+        public Builder setHampelThreshold(float threshold) {
+            if (!(threshold >= 0)) {
+                throw new IllegalArgumentException("threshold >= 0 required but it was " + threshold);
+            }
+            this.hampelThreshold = threshold;
+            return this;
+        }
+
+        public MedianFilter build() {
+            return new MedianFilter(this);
+        }
+    }
+
+    @Override
+    public Publisher<RxSensorEvent> apply(@NonNull final Flowable<RxSensorEvent> upstream) {
+        return Flowable.defer(new Callable<Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> call() throws Exception {
+                final RollingOrderStatistics[][] windows = new RollingOrderStatistics[1][];
+                return upstream.map(new Function<RxSensorEvent, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        if (windows[0] == null) {
+                            windows[0] = new RollingOrderStatistics[rxSensorEvent.values.length];
+                            for (int i = 0; i < windows[0].length; i++) {
+                                windows[0][i] = new RollingOrderStatistics(windowSize);
+                            }
+                        }
+                        filter(windows[0], rxSensorEvent.values);
+                        return rxSensorEvent;
+                    }
+                });
+            }
+        });
+    }
+
+    private void filter(RollingOrderStatistics[] windows, float[] values) {
+        int length = Math.min(windows.length, values.length);
+        for (int i = 0; i < length; i++) {
+            float value = values[i];
+            if (Float.isNaN(value)) {
+                continue;
+            }
+
+            RollingOrderStatistics window = windows[i];
+            window.add(value);
+            float median = window.median();
+            if (Float.isNaN(hampelThreshold)) {
+                values[i] = median;
+            } else {
+                float sigma = RollingOrderStatistics.MAD_TO_SIGMA * window.medianAbsoluteDeviation(median);
+                if (Math.abs(value - median) > hampelThreshold * sigma) {
+                    values[i] = median;
+                }
+            }
+        }
+    }
+}
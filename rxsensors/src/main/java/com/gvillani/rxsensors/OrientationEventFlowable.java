@@ -33,6 +33,10 @@ public final class OrientationEventFlowable {
 
     private boolean isRemapping;
 
+    private Flowable<Boolean> activeSignal;
+
+    private int backgroundSamplingPeriodUs;
+
     private OrientationEventFlowable(Builder builder) {
         this.sensorManager = builder.sensorManager;
         this.sensorRotationVector = builder.sensorRotationVector;
@@ -43,6 +47,8 @@ public final class OrientationEventFlowable {
         this.remappingCoordinateY = builder.remappingCoordinateY;
         this.enableLowPassFilter = builder.enableLowPassFilter;
         this.lpfAlpha = builder.lpfAlpha;
+        this.activeSignal = builder.activeSignal;
+        this.backgroundSamplingPeriodUs = builder.backgroundSamplingPeriodUs;
     }
 
     public static class Builder {
@@ -66,6 +72,10 @@ public final class OrientationEventFlowable {
 
         private float lpfAlpha = DEFAULT_LPF_PARAMETER;
 
+        private Flowable<Boolean> activeSignal;
+
+        private int backgroundSamplingPeriodUs = RxSensorLifecycle.NO_BACKGROUND_SAMPLING;
+
         public Builder(SensorManager sensorManager, int samplingPeriodUs) {
             this.sensorManager = sensorManager;
             this.samplingPeriodUs = samplingPeriodUs;
@@ -95,6 +105,21 @@ public final class OrientationEventFlowable {
             return this;
         }
 
+        /**
+         * Registers to the sensor only while the signal is true (see {@link RxSensorLifecycle}),
+         * keeping the state of the low pass filter across the pauses. The Flowable terminates
+         * when the signal terminates.
+         *
+         * @param activeSignal               A Flowable that emits true when the sensor must run.
+         * @param backgroundSamplingPeriodUs The sampling period used while the signal is false,
+         *                                   or {@link RxSensorLifecycle#NO_BACKGROUND_SAMPLING}.
+         */
+        public Builder pauseWhenInactive(Flowable<Boolean> activeSignal, int backgroundSamplingPeriodUs) {
+            this.activeSignal = activeSignal;
+            this.backgroundSamplingPeriodUs = backgroundSamplingPeriodUs;
+            return this;
+        }
+
         public Flowable<RxSensorEvent> build() {
             final OrientationEventFlowable o = new OrientationEventFlowable(this);
 
@@ -105,6 +130,20 @@ public final class OrientationEventFlowable {
                     final Listener listener = o.isRemapping ? new Listener(e, o.enableLowPassFilter, o.lpfAlpha,
                             o.remappingCoordinateX, o.remappingCoordinateY) :
                             new Listener(e, o.enableLowPassFilter, o.lpfAlpha);
+                    if (o.activeSignal != null) {
+                        final PausableRegistration registration = new PausableRegistration(o.sensorManager,
+                                listener, o.sensorRotationVector, o.samplingPeriodUs,
+                                o.backgroundSamplingPeriodUs, o.maxReportLatencyUs);
+                        e.setCancellable(new Cancellable() {
+                            @Override
+                            public void cancel() throws Exception {
+                                registration.stop();
+                            }
+                        });
+                        registration.start(o.activeSignal, e);
+                        return;
+                    }
+
                     e.setCancellable(new Cancellable() {
                         @Override
                         public void cancel() throws Exception {
@@ -204,7 +243,7 @@ public final class OrientationEventFlowable {
         }
     }
 
-    private static float[] lowPass(float[] input, float[] output, float alpha) {
+    static float[] lowPass(float[] input, float[] output, float alpha) {
         if (output == null) return input;
 
         for (int i = 0; i < input.length; i++) {
@@ -0,0 +1,127 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Keeps a listener registered to a sensor according to an active signal (see
+ * {@link RxSensorLifecycle}): at the foreground sampling period when active, at the background
+ * one, or not at all, when inactive. The listener is always the same, so the state it holds
+ * (e.g. its filters) survives the pauses, and the downstream chain is never torn down.
+ * <p>
+ * The calls to the {@link SensorManager} go through {@link #register(int)} and
+ * {@link #unregister()}, so that the tests can replace them.
+ */
+class PausableRegistration implements Consumer<Boolean> {
+
+    private static final int UNREGISTERED = -2;
+
+    private final SensorManager sensorManager;
+
+    private final SensorEventListener listener;
+
+    private final Sensor sensor;
+
+    private final int samplingPeriodUs;
+
+    private final int backgroundSamplingPeriodUs;
+
+    private final int maxReportLatencyUs;
+
+    private int currentPeriodUs = UNREGISTERED;
+
+    private boolean stopped;
+
+    private Disposable signal;
+
+    PausableRegistration(SensorManager sensorManager, SensorEventListener listener, Sensor sensor,
+                         int samplingPeriodUs, int backgroundSamplingPeriodUs, int maxReportLatencyUs) {
+        this.sensorManager = sensorManager;
+        this.listener = listener;
+        this.sensor = sensor;
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.backgroundSamplingPeriodUs = backgroundSamplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+    }
+
+    /**
+     * Subscribes to the active signal. The termination of the signal, e.g. when the activity is
+     * destroyed, terminates the emitter of the sensor events, which stops the registration.
+     */
+    void start(Flowable<Boolean> activeSignal, final FlowableEmitter<?> emitter) {
+        Disposable d = activeSignal.subscribe(this, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) throws Exception {
+                stop();
+                emitter.onError(throwable);
+            }
+        }, new Action() {
+            @Override
+            public void run() throws Exception {
+                stop();
+                emitter.onComplete();
+            }
+        });
+        synchronized (this) {
+            if (stopped) {
+                d.dispose();
+            } else {
+                signal = d;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void accept(Boolean active) throws Exception {
+        if (stopped) {
+            return;
+        }
+
+        int periodUs = active ? samplingPeriodUs : backgroundSamplingPeriodUs;
+        if (periodUs == RxSensorLifecycle.NO_BACKGROUND_SAMPLING) {
+            periodUs = UNREGISTERED;
+        }
+        if (periodUs == currentPeriodUs) {
+            return;
+        }
+
+        if (currentPeriodUs != UNREGISTERED) {
+            unregister();
+        }
+        if (periodUs != UNREGISTERED) {
+            register(periodUs);
+        }
+        currentPeriodUs = periodUs;
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (signal != null) {
+            signal.dispose();
+        }
+        if (currentPeriodUs != UNREGISTERED) {
+            unregister();
+            currentPeriodUs = UNREGISTERED;
+        }
+    }
+
+    void register(int periodUs) {
+        if (Build.VERSION.SDK_INT < 19) {
+            sensorManager.registerListener(listener, sensor, periodUs);
+        } else {
+            sensorManager.registerListener(listener, sensor, periodUs, maxReportLatencyUs);
+        }
+    }
+
+    void unregister() {
+        sensorManager.unregisterListener(listener);
+    }
+}
@@ -0,0 +1,207 @@
+package com.gvillani.rxsensors;
+
+import com.gvillani.rxsensors.offline.SensorRecording;
+
+/**
+ * A compact, fixed capacity, store of samples. The values are quantized to 16 bit with a
+ * {@link SampleQuantizer}, and the timestamps are stored as unsigned 32 bit offsets, in
+ * microseconds, from the first timestamp of blocks of up to 64 samples. A block spans up to about
+ * 71 minutes, so it is closed early only by very long gaps, whatever the sampling rate. A 3-axis
+ * sample takes 10 bytes, against the 60 or more of a {@link RxSensorEvent}.
+ * <p>
+ * The first timestamp of every block is exact, the others are truncated to the microsecond,
+ * while the values have the error of the quantizer. The values missing from a sample with fewer
+ * values than the dimension are stored as 0. Samples must be added in timestamp order. The buffer
+ * is not thread safe.
+ */
+public final class QuantizedSampleBuffer {
+
+    private static final int BLOCK_SHIFT = 6;
+
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private static final long MAX_OFFSET_US = 0xFFFFFFFFL;
+
+    private final SampleQuantizer quantizer;
+
+    private final int capacity;
+
+    private final int dimension;
+
+    private final short[] values;
+
+    private final short zero;
+
+    private final int[] offsets;
+
+    private long[] blockAnchors;
+
+    private int[] blockStarts;
+
+    private int blockCount;
+
+    private int size;
+
+    /**
+     * @param quantizer The {@link SampleQuantizer} used for the values.
+     * @param capacity  Maximum number of samples.
+     * @param dimension Number of values of every sample.
+     */
+    public QuantizedSampleBuffer(SampleQuantizer quantizer, int capacity, int dimension) {
+        if (capacity <= 0 || dimension <= 0) {
+            throw new IllegalArgumentException("capacity and dimension must be > 0");
+        }
+        this.quantizer = quantizer;
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.values = new short[capacity * dimension];
+        this.zero = quantizer.encode(0F);
+        this.offsets = new int[capacity];
+        int blocks = (capacity + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.blockAnchors = new long[blocks];
+        this.blockStarts = new int[blocks];
+    }
+
+    /**
+     * Stores the values and the timestamp of the event.
+     *
+     * @return false if the buffer is full or the event is older than the last sample.
+     */
+    public boolean add(RxSensorEvent event) {
+        return add(event.values, event.timestamp);
+    }
+
+    /**
+     * See {@link #add(RxSensorEvent)}.
+     */
+    public boolean add(float[] sampleValues, long timestamp) {
+        if (size == capacity) {
+            return false;
+        }
+
+        long offsetUs = 0;
+        if (blockCount > 0) {
+            int block = blockCount - 1;
+            if (timestamp < timestampAt(size - 1)) {
+                return false;
+            }
+            offsetUs = (timestamp - blockAnchors[block]) / 1000;
+        }
+        if (blockCount == 0 || size - blockStarts[blockCount - 1] == BLOCK_SIZE || offsetUs > MAX_OFFSET_US) {
+            newBlock(timestamp);
+            offsetUs = 0;
+        }
+
+        offsets[size] = (int) offsetUs;
+        int base = size * dimension;
+        int length = Math.min(dimension, sampleValues.length);
+        for (int i = 0; i < dimension; i++) {
+            values[base + i] = i < length ? quantizer.encode(sampleValues[i]) : zero;
+        }
+        size++;
+        return true;
+    }
+
+    public long timestampAt(int index) {
+        checkIndex(index);
+        return blockAnchors[blockOf(index)] + (offsets[index] & MAX_OFFSET_US) * 1000;
+    }
+
+    public float valueAt(int index, int axis) {
+        checkIndex(index);
+        return quantizer.decode(values[index * dimension + axis]);
+    }
+
+    /**
+     * Decodes the values of a sample into the provided array.
+     */
+    public void valuesAt(int index, float[] out) {
+        checkIndex(index);
+        int base = index * dimension;
+        for (int i = 0; i < dimension; i++) {
+            out[i] = quantizer.decode(values[base + i]);
+        }
+    }
+
+    /**
+     * @return a new {@link RxSensorEvent} with the decoded sample. The sensor of the event is
+     * null and its accuracy is unknown (zero).
+     */
+    public RxSensorEvent eventAt(int index) {
+        float[] sample = new float[dimension];
+        valuesAt(index, sample);
+        return new RxSensorEvent(sample, null, 0, timestampAt(index));
+    }
+
+    /**
+     * @return a {@link SensorRecording} with the decoded samples, e.g. for offline analysis.
+     */
+    public SensorRecording toRecording() {
+        long[] timestamps = new long[size];
+        float[] decoded = new float[size * dimension];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = timestampAt(i);
+        }
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = quantizer.decode(values[i]);
+        }
+        return new SensorRecording(timestamps, decoded, new int[size], dimension);
+    }
+
+    public void clear() {
+        size = 0;
+        blockCount = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public SampleQuantizer getQuantizer() {
+        return quantizer;
+    }
+
+    private void newBlock(long anchor) {
+        if (blockCount == blockAnchors.length) {
+            // only when blocks are closed early, by gaps of more than 71 minutes
+            int length = blockAnchors.length * 2;
+            long[] anchors = new long[length];
+            int[] starts = new int[length];
+            System.arraycopy(blockAnchors, 0, anchors, 0, blockCount);
+            System.arraycopy(blockStarts, 0, starts, 0, blockCount);
+            blockAnchors = anchors;
+            blockStarts = starts;
+        }
+        blockAnchors[blockCount] = anchor;
+        blockStarts[blockCount] = size;
+        blockCount++;
+    }
+
+    private int blockOf(int index) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.gvillani.rxsensors;
+
+/**
+ * A batch of samples at a fixed rate, produced by {@link FixedRateResampler}. The values are
+ * stored interleaved: the values of the sample i are stored from index i * dimension.
+ */
+public final class ResampledBatch {
+
+    /**
+     * The time in nanosecond of the first sample of the batch.
+     */
+    public final long firstTimestamp;
+
+    /**
+     * The time in nanosecond between two consecutive samples.
+     */
+    public final long periodNs;
+
+    /**
+     * Number of samples in the batch.
+     */
+    public final int size;
+
+    /**
+     * Number of values of every sample.
+     */
+    public final int dimension;
+
+    public final float[] values;
+
+    ResampledBatch(long firstTimestamp, long periodNs, int size, int dimension, float[] values) {
+        this.firstTimestamp = firstTimestamp;
+        this.periodNs = periodNs;
+        this.size = size;
+        this.dimension = dimension;
+        this.values = values;
+    }
+
+    public long timestampAt(int index) {
+        return firstTimestamp + index * periodNs;
+    }
+
+    public float valueAt(int index, int axis) {
+        return values[index * dimension + axis];
+    }
+
+    /**
+     * @return true if the sample falls in a gap of the input, and the gap policy is
+     * {@link FixedRateResampler.GapPolicy#MARK}.
+     */
+    public boolean isGap(int index) {
+        return Float.isNaN(values[index * dimension]);
+    }
+}
@@ -0,0 +1,239 @@
+package com.gvillani.rxsensors;
+
+/**
+ * Sliding window of the last values of a single axis, kept ordered so that any rank can be
+ * selected in O(log n).
+ * <p>
+ * The order is kept by a treap whose nodes are the slots of the ring buffer of the window, so
+ * that everything is stored in primitive arrays allocated once: adding a value evicts the oldest
+ * one from the tree, overwrites its slot and inserts it again. Values are ordered by value and
+ * then by slot, so equal values are distinct keys.
+ */
+final class RollingOrderStatistics {
+
+    private static final int NONE = -1;
+
+    /**
+     * Scale factor that makes the median absolute deviation an estimate of the standard
+     * deviation, for normally distributed data.
+     */
+    static final float MAD_TO_SIGMA = 1.4826F;
+
+    private final float[] values;
+
+    private final int[] left;
+
+    private final int[] right;
+
+    private final int[] sizes;
+
+    private final int[] priorities;
+
+    private int root = NONE;
+
+    private int next;
+
+    private int count;
+
+    private int splitLeft;
+
+    private int splitRight;
+
+    RollingOrderStatistics(int capacity) {
+        this.values = new float[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.sizes = new int[capacity];
+        this.priorities = new int[capacity];
+
+        int seed = 0x9E3779B9;
+        for (int i = 0; i < capacity; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            priorities[i] = seed;
+        }
+    }
+
+    /**
+     * Adds a value, evicting the oldest one if the window is full. NaN must not be added.
+     */
+    void add(float value) {
+        int slot = next;
+        if (count == values.length) {
+            root = erase(root, slot);
+        } else {
+            count++;
+        }
+        values[slot] = value;
+        left[slot] = NONE;
+        right[slot] = NONE;
+        sizes[slot] = 1;
+        root = insert(root, slot);
+        next = slot + 1 == values.length ? 0 : slot + 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the value with the provided rank, 0 being the smallest.
+     */
+    float select(int rank) {
+        int node = root;
+        for (; ; ) {
+            int leftSize = size(left[node]);
+            if (rank < leftSize) {
+                node = left[node];
+            } else if (rank == leftSize) {
+                return values[node];
+            } else {
+                rank -= leftSize + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * @return the median of the window, the mean of the two central values if the size is even.
+     */
+    float median() {
+        float upper = select(count / 2);
+        return (count & 1) == 1 ? upper : (select(count / 2 - 1) + upper) / 2F;
+    }
+
+    /**
+     * @return the median of the absolute deviations from the provided median. The deviations are
+     * two sorted sequences, below and above the median, so their k-th is found with a binary
+     * search on how many are taken from each side, in O(log^2 n).
+     */
+    float medianAbsoluteDeviation(float median) {
+        int below = countLess(median);
+        float upper = smallestDeviation(count / 2, median, below);
+        if ((count & 1) == 1) {
+            return upper;
+        }
+        return (smallestDeviation(count / 2 - 1, median, below) + upper) / 2F;
+    }
+
+    /**
+     * @return the k-th smallest deviation, merging median - select(below - 1 - i) and
+     * select(below + i) - median.
+     */
+    private float smallestDeviation(int k, float median, int below) {
+        int above = count - below;
+        int low = Math.max(0, k + 1 - above);
+        int high = Math.min(k + 1, below);
+        while (low < high) {
+            int i = (low + high) >>> 1;
+            int j = k + 1 - i;
+            if (median - select(below - 1 - i) < select(below + j - 1) - median) {
+                low = i + 1;
+            } else {
+                high = i;
+            }
+        }
+
+        int j = k + 1 - low;
+        float fromBelow = low > 0 ? median - select(below - low) : Float.NEGATIVE_INFINITY;
+        float fromAbove = j > 0 ? select(below + j - 1) - median : Float.NEGATIVE_INFINITY;
+        return Math.max(fromBelow, fromAbove);
+    }
+
+    private int countLess(float value) {
+        int node = root;
+        int less = 0;
+        while (node != NONE) {
+            if (values[node] < value) {
+                less += size(left[node]) + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return less;
+    }
+
+    private int insert(int node, int slot) {
+        if (node == NONE) {
+            return slot;
+        }
+        if (priorities[slot] > priorities[node]) {
+            split(node, slot);
+            left[slot] = splitLeft;
+            right[slot] = splitRight;
+            update(slot);
+            return slot;
+        }
+        if (less(slot, node)) {
+            left[node] = insert(left[node], slot);
+        } else {
+            right[node] = insert(right[node], slot);
+        }
+        update(node);
+        return node;
+    }
+
+    private int erase(int node, int slot) {
+        if (node == slot) {
+            return merge(left[node], right[node]);
+        }
+        if (less(slot, node)) {
+            left[node] = erase(left[node], slot);
+        } else {
+            right[node] = erase(right[node], slot);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits the subtree in the nodes less than the slot (splitLeft) and the others (splitRight).
+     */
+    private void split(int node, int slot) {
+        if (node == NONE) {
+            splitLeft = NONE;
+            splitRight = NONE;
+        } else if (less(node, slot)) {
+            split(right[node], slot);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            split(left[node], slot);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    private int merge(int a, int b) {
+        if (a == NONE) {
+            return b;
+        }
+        if (b == NONE) {
+            return a;
+        }
+        if (priorities[a] > priorities[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private boolean less(int a, int b) {
+        return values[a] < values[b] || (values[a] == values[b] && a < b);
+    }
+
+    private void update(int node) {
+        sizes[node] = size(left[node]) + size(right[node]) + 1;
+    }
+
+    private int size(int node) {
+        return node == NONE ? 0 : sizes[node];
+    }
+}
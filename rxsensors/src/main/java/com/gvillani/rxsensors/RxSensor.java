@@ -1,5 +1,6 @@
 package com.gvillani.rxsensors;
 
+import android.app.Activity;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
@@ -62,6 +63,55 @@ public final class RxSensor {
         return SensorEventFlowable.create(sensorManager, sensor, samplingPeriodUs);
     }
 
+    /**
+     * Create a Flowable that emits {@link RxSensorEvent} items of the default sensor for the
+     * provided sensorType, bound to the lifecycle of the activity: the sensor listener is
+     * unregistered when the activity stops, or kept at backgroundSamplingPeriodUs, and registered
+     * again when it starts, without terminating the Flowable.
+     *
+     * @param activity                   The Activity whose lifecycle drives the registration.
+     * @param sensorType                 The type of the sensor to register to.
+     * @param samplingPeriodUs           Sampling rate of the emitter while the activity is started.
+     * @param backgroundSamplingPeriodUs Sampling rate while the activity is stopped, or
+     *                                   {@link RxSensorLifecycle#NO_BACKGROUND_SAMPLING}.
+     * @return A Flowable object that emits {@link RxSensorEvent}.
+     */
+    public static Flowable<RxSensorEvent> sensorEvent(Activity activity, int sensorType, int samplingPeriodUs,
+                                                      int backgroundSamplingPeriodUs) {
+        Preconditions.checkNotNull(activity, "Activity is null");
+        SensorManager sensorManager = getSensorManager(activity);
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        Preconditions.checkSensorExists(sensor);
+
+        return SensorEventFlowable.create(sensorManager, sensor, samplingPeriodUs, 0,
+                RxSensorLifecycle.activityStarted(activity), backgroundSamplingPeriodUs);
+    }
+
+    /**
+     * Create a {@link BatchedSensorFlowable} for the default sensor of the provided sensorType.
+     * The events are stored in the hardware FIFO of the sensor for at most latencyBudgetUs
+     * microseconds and emitted in batches, so that the application processor can sleep in the
+     * meantime.
+     *
+     * @param context          A Context object.
+     * @param sensorType       The type of the sensor to register to.
+     * @param samplingPeriodUs Sampling rate of the emitter. It is an indication for the system
+     *                         about how fast the events should be emitted.
+     * @param latencyBudgetUs  Maximum time, in microseconds, an event can be delayed.
+     * @return A {@link BatchedSensorFlowable} that emits batches of {@link RxSensorEvent}.
+     */
+    public static BatchedSensorFlowable batchedSensorEvent(Context context, int sensorType, int samplingPeriodUs,
+                                                           int latencyBudgetUs) {
+        Preconditions.checkNotNull(context, "Context is null");
+        SensorManager sensorManager = getSensorManager(context);
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        Preconditions.checkSensorExists(sensor);
+
+        return new BatchedSensorFlowable.Builder(sensorManager, sensor, samplingPeriodUs)
+                .setLatencyBudgetUs(latencyBudgetUs)
+                .build();
+    }
+
     /**
      * Create a Flowable that emits {@link RxAccuracyEvent} items, based on the specified sensor and
      * with the provided sampling rate, and eventually on the accuracy change events generated from
@@ -136,6 +186,20 @@ public final class RxSensor {
         return new OrientationEventFlowable.Builder(sensorManager, samplingPeriodUs).build();
     }
 
+    /**
+     * See {@link #orientationEvent(Context, int)}. The sensor listener is bound to the lifecycle
+     * of the activity, see {@link #sensorEvent(Activity, int, int, int)}. The state of the filter
+     * is kept while the activity is stopped.
+     */
+    public static Flowable<RxSensorEvent> orientationEvent(Activity activity, int samplingPeriodUs,
+                                                           int backgroundSamplingPeriodUs) {
+        Preconditions.checkNotNull(activity, "Activity is null");
+        SensorManager sensorManager = getSensorManager(activity);
+        return new OrientationEventFlowable.Builder(sensorManager, samplingPeriodUs)
+                .pauseWhenInactive(RxSensorLifecycle.activityStarted(activity), backgroundSamplingPeriodUs)
+                .build();
+    }
+
     /**
      * See {@link #orientationEvent(Context, int)}. It uses a predefined sampling
      * period {@link SensorManager#SENSOR_DELAY_NORMAL}.
@@ -24,6 +24,22 @@ public class RxSensorEvent {
      */
     public long timestamp;
 
+    private RxSensorEvent() {
+    }
+
+    /**
+     * Creates an event that takes ownership of values, without copying them. Used where values
+     * is already a private copy.
+     */
+    static RxSensorEvent wrap(float[] values, Sensor sensor, int accuracy, long timestamp) {
+        RxSensorEvent event = new RxSensorEvent();
+        event.values = values;
+        event.sensor = sensor;
+        event.accuracy = accuracy;
+        event.timestamp = timestamp;
+        return event;
+    }
+
     public RxSensorEvent(SensorEvent sensorEvent) {
         values = sensorEvent.values.clone();
         sensor = sensorEvent.sensor;
@@ -0,0 +1,111 @@
+package com.gvillani.rxsensors;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Signals used for pausing the sensor registrations when the screen that uses them goes in
+ * background. A signal is a Flowable that emits true when the sensor must run at the normal
+ * sampling rate, and false when it must be paused (or run at the background sampling rate).
+ */
+public final class RxSensorLifecycle {
+
+    /**
+     * Background sampling period meaning that the sensor is unregistered while in background.
+     */
+    public static final int NO_BACKGROUND_SAMPLING = -1;
+
+    /**
+     * Creates a signal that follows the started state of the provided activity: it emits true
+     * when the activity is started and false when it is stopped. It emits true at subscription,
+     * since it is expected to be used from onCreate or onStart. On API levels lower than 14 it
+     * emits only true.
+     *
+     * @param activity The Activity to observe.
+     * @return A Flowable that emits the started state of the Activity.
+     */
+    public static Flowable<Boolean> activityStarted(final Activity activity) {
+        if (Build.VERSION.SDK_INT < 14) {
+            return Flowable.just(true);
+        }
+
+        return Flowable.create(new FlowableOnSubscribe<Boolean>() {
+            @Override
+            public void subscribe(@NonNull final FlowableEmitter<Boolean> e) throws Exception {
+                final Application application = activity.getApplication();
+                final Callbacks callbacks = new Callbacks(activity, e);
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        application.unregisterActivityLifecycleCallbacks(callbacks);
+                    }
+                });
+                e.onNext(true);
+                application.registerActivityLifecycleCallbacks(callbacks);
+            }
+        }, BackpressureStrategy.LATEST);
+    }
+
+    @TargetApi(14)
+    static final class Callbacks implements Application.ActivityLifecycleCallbacks {
+        private final Activity activity;
+
+        private final FlowableEmitter<Boolean> emitter;
+
+        Callbacks(Activity activity, FlowableEmitter<Boolean> emitter) {
+            this.activity = activity;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (activity == this.activity) {
+                emitter.onNext(true);
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            if (activity == this.activity) {
+                emitter.onNext(false);
+            }
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity == this.activity) {
+                emitter.onComplete();
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+
+    private RxSensorLifecycle() {
+        throw new AssertionError("No instances.");
+    }
+}
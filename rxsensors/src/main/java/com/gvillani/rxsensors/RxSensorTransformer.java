@@ -2,6 +2,8 @@ package com.gvillani.rxsensors;
 
 import org.reactivestreams.Publisher;
 
+import java.util.concurrent.TimeUnit;
+
 import io.reactivex.Flowable;
 import io.reactivex.FlowableTransformer;
 import io.reactivex.annotations.NonNull;
@@ -141,6 +143,59 @@ public class RxSensorTransformer {
         return lowPassFilterZ(DEFAULT_LPF_PARAMETER);
     }
 
+    /**
+     * Resample the upcoming stream to a fixed rate, using a linear interpolation of the values.
+     * The output samples are emitted in batches, see {@link FixedRateResampler} for more options.
+     *
+     * @param periodNs time in nanoseconds between two output samples.
+     * @return a FlowableTransformer that converts the input stream in a stream of
+     * {@link ResampledBatch}
+     */
+    public static FlowableTransformer<? super RxSensorEvent, ? extends ResampledBatch> resample(long periodNs) {
+        return new FixedRateResampler.Builder(periodNs, TimeUnit.NANOSECONDS).build();
+    }
+
+    /**
+     * Apply a running median filter to the upcoming stream, to all the "dimensions" of the values
+     * contained in the event. Unlike the low pass filter, it removes isolated spikes instead of
+     * smearing them. See {@link MedianFilter}.
+     *
+     * @param windowSize number of samples the median is computed on.
+     * @return a FlowableTransformer that can be used for filtering data in the input stream
+     */
+    public static FlowableTransformer<? super RxSensorEvent, ? extends RxSensorEvent> medianFilter(int windowSize) {
+        return new MedianFilter.Builder(windowSize).build();
+    }
+
+    /**
+     * Apply a Hampel filter to the upcoming stream, to all the "dimensions" of the values
+     * contained in the event: the values farther than threshold standard deviations from the
+     * median of the window are replaced by the median. See {@link MedianFilter}.
+     *
+     * @param windowSize number of samples the median is computed on.
+     * @param threshold  number of standard deviations, e.g. 3.
+     * @return a FlowableTransformer that can be used for filtering data in the input stream
+     */
+    public static FlowableTransformer<? super RxSensorEvent, ? extends RxSensorEvent> hampelFilter(int windowSize, float threshold) {
+        return new MedianFilter.Builder(windowSize).setHampelThreshold(threshold).build();
+    }
+
+    /**
+     * Apply a Kalman filter with a constant velocity model to the upcoming stream, to all the
+     * "dimensions" of the values contained in the event. Unlike the low pass filter, it does not
+     * lag behind values changing with a steady rate. See {@link KalmanFilter} for other models.
+     *
+     * @param processNoise     variance of the second derivative of the values.
+     * @param measurementNoise variance of the noise of the sensor.
+     * @return a FlowableTransformer that can be used for filtering data in the input stream
+     */
+    public static FlowableTransformer<? super RxSensorEvent, ? extends RxSensorEvent> kalmanFilter(float processNoise, float measurementNoise) {
+        return new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_VELOCITY)
+                .setProcessNoise(processNoise)
+                .setMeasurementNoise(measurementNoise)
+                .build();
+    }
+
     private static float applyLpf(float oldValue, float currentValue, float parameter) {
         return oldValue + parameter * (currentValue - oldValue);
     }
@@ -0,0 +1,117 @@
+package com.gvillani.rxsensors;
+
+/**
+ * Minimum, maximum and mean of every axis over the samples of a time bucket, produced by
+ * {@link Downsampler}.
+ */
+public final class SampleEnvelope {
+
+    /**
+     * The time in nanosecond of the start of the bucket (included).
+     */
+    public final long startTimestamp;
+
+    /**
+     * The time in nanosecond of the end of the bucket (excluded).
+     */
+    public final long endTimestamp;
+
+    /**
+     * Number of samples in the bucket.
+     */
+    public final int count;
+
+    public final float[] min;
+
+    public final float[] max;
+
+    public final float[] mean;
+
+    SampleEnvelope(long startTimestamp, long endTimestamp, int count, float[] min, float[] max, float[] mean) {
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    public int dimension() {
+        return mean.length;
+    }
+
+    /**
+     * Accumulates the samples of a bucket in primitive arrays, reused from a bucket to the next.
+     * The values beyond the dimension are ignored, and the axes missing from a shorter sample keep
+     * their minimum, maximum and mean; an axis without any value in the bucket is NaN.
+     */
+    static final class Accumulator {
+        private final float[] min;
+
+        private final float[] max;
+
+        private final double[] sum;
+
+        private final int[] counts;
+
+        private int count;
+
+        Accumulator(int dimension) {
+            this.min = new float[dimension];
+            this.max = new float[dimension];
+            this.sum = new double[dimension];
+            this.counts = new int[dimension];
+        }
+
+        void add(float[] values, int offset) {
+            int length = Math.min(sum.length, values.length - offset);
+            for (int i = 0; i < length; i++) {
+                float value = values[offset + i];
+                if (counts[i] == 0) {
+                    min[i] = value;
+                    max[i] = value;
+                    sum[i] = value;
+                } else {
+                    if (value < min[i]) {
+                        min[i] = value;
+                    }
+                    if (value > max[i]) {
+                        max[i] = value;
+                    }
+                    sum[i] += value;
+                }
+                counts[i]++;
+            }
+            count++;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        /**
+         * @return the envelope of the samples added so far, and resets the accumulator.
+         */
+        SampleEnvelope take(long startTimestamp, long endTimestamp) {
+            int dimension = sum.length;
+            float[] minimum = new float[dimension];
+            float[] maximum = new float[dimension];
+            float[] mean = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                if (counts[i] == 0) {
+                    minimum[i] = Float.NaN;
+                    maximum[i] = Float.NaN;
+                    mean[i] = Float.NaN;
+                } else {
+                    minimum[i] = min[i];
+                    maximum[i] = max[i];
+                    mean[i] = (float) (sum[i] / counts[i]);
+                }
+                counts[i] = 0;
+            }
+            SampleEnvelope envelope = new SampleEnvelope(startTimestamp, endTimestamp, count, minimum, maximum, mean);
+            count = 0;
+            return envelope;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.Sensor;
+
+/**
+ * Converts the values of a sensor to 16 bit fixed point numbers and back.
+ * <p>
+ * A value is stored as the nearest multiple of the quantization step, so the error is at most
+ * half step (plus the rounding error of the float arithmetic). Values outside the representable
+ * range (&plusmn;32767 steps) are clipped to it. The remaining code, {@link #NAN_CODE}, stands for
+ * {@link Float#NaN}, so a missing value survives the round trip.
+ */
+public final class SampleQuantizer {
+
+    /**
+     * The code of {@link Float#NaN}, outside the range of the quantized values.
+     */
+    public static final short NAN_CODE = Short.MIN_VALUE;
+
+    private final float step;
+
+    private final float inverseStep;
+
+    /**
+     * @param step The quantization step, i.e. the value of the least significant bit.
+     */
+    public SampleQuantizer(float step) {
+        if (!(step > 0F) || Float.isInfinite(step)) {
+            throw new IllegalArgumentException("step > 0 required but it was " + step);
+        }
+        this.step = step;
+        this.inverseStep = 1F / step;
+    }
+
+    /**
+     * Creates a quantizer for the provided sensor. The step is the smallest one that covers the
+     * maximum range of the sensor, but never smaller than its resolution, since finer steps would
+     * only store noise.
+     *
+     * @param sensor The {@link Sensor Sensor} whose values are quantized.
+     * @return A SampleQuantizer with an error of at most half step for values in range.
+     */
+    public static SampleQuantizer forSensor(Sensor sensor) {
+        float rangeStep = sensor.getMaximumRange() / Short.MAX_VALUE;
+        float step = Math.max(rangeStep, sensor.getResolution());
+        if (!(step > 0F)) {
+            throw new IllegalArgumentException("Sensor reports neither a maximum range nor a resolution");
+        }
+        return new SampleQuantizer(step);
+    }
+
+    public short encode(float value) {
+        if (Float.isNaN(value)) {
+            return NAN_CODE;
+        }
+        float scaled = value * inverseStep;
+        if (scaled >= Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (scaled <= -Short.MAX_VALUE) {
+            return -Short.MAX_VALUE;
+        }
+        return (short) Math.round(scaled);
+    }
+
+    public float decode(short value) {
+        if (value == NAN_CODE) {
+            return Float.NaN;
+        }
+        return value * step;
+    }
+
+    public float getStep() {
+        return step;
+    }
+
+    /**
+     * @return the maximum error of a value within the representable range.
+     */
+    public float getMaxError() {
+        return step / 2F;
+    }
+
+    /**
+     * @return the largest absolute value that is not clipped.
+     */
+    public float getMaxValue() {
+        return Short.MAX_VALUE * step;
+    }
+}
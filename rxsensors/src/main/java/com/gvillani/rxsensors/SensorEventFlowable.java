@@ -16,7 +16,7 @@ import io.reactivex.functions.Cancellable;
 public final class SensorEventFlowable {
 
     /**
-     * Creates a Flowable that subscirbe to the source of data (sensor) and emits {@link RxSensorEvent}
+     * Creates a Flowable that subscribes to the source of data (sensor) and emits {@link RxSensorEvent}
      * items with a predefined frequency.
      *
      * @param sensorManager      A {@link SensorManager} object.
@@ -47,6 +47,44 @@ public final class SensorEventFlowable {
         }, BackpressureStrategy.MISSING);
     }
 
+    /**
+     * Creates a Flowable that subscribes to the source of data (sensor) and emits {@link RxSensorEvent}
+     * items only while the activeSignal is true. When the signal becomes false the sensor listener
+     * is unregistered, or registered again with backgroundSamplingPeriodUs, without terminating
+     * the Flowable, and it is registered again with samplingPeriodUs when the signal becomes true.
+     * The Flowable terminates, and the listener is unregistered, when the signal terminates.
+     *
+     * @param sensorManager              A {@link SensorManager} object.
+     * @param sensor                     The {@link Sensor Sensor} to register to.
+     * @param samplingPeriodUs           See {@link SensorManager#registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs)}
+     * @param maxReportLatencyUs         See {@link SensorManager#registerListener(SensorEventListener listener, Sensor sensor, int samplingPeriodUs, int maxReportLatencyUs)}
+     * @param activeSignal               A Flowable that emits true when the sensor must run, see
+     *                                   {@link RxSensorLifecycle}.
+     * @param backgroundSamplingPeriodUs The sampling period used while the signal is false, or
+     *                                   {@link RxSensorLifecycle#NO_BACKGROUND_SAMPLING}.
+     * @return A Flowable that generates {@link RxSensorEvent} based on the provided parameters.
+     */
+    public static Flowable<RxSensorEvent> create(final SensorManager sensorManager, final Sensor sensor,
+                                                 final int samplingPeriodUs, final int maxReportLatencyUs,
+                                                 final Flowable<Boolean> activeSignal,
+                                                 final int backgroundSamplingPeriodUs) {
+        return Flowable.create(new FlowableOnSubscribe<RxSensorEvent>() {
+            @Override
+            public void subscribe(@NonNull FlowableEmitter<RxSensorEvent> e) throws Exception {
+                final PausableRegistration registration = new PausableRegistration(sensorManager,
+                        new Listener(e), sensor, samplingPeriodUs, backgroundSamplingPeriodUs, maxReportLatencyUs);
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        registration.stop();
+                    }
+                });
+
+                registration.start(activeSignal, e);
+            }
+        }, BackpressureStrategy.MISSING);
+    }
+
     /**
      * See {@link #create(SensorManager, Sensor, int, int)}. It used a predefined value for
      * maxReportLatencyUs equal to zero. The events will then be delivered as soon as they will be
@@ -0,0 +1,278 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.SensorManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Keeps the last samples of a sensor in memory, in a primitive ring buffer sized by duration,
+ * and allows to query them on demand, e.g. "what happened in the last 5 seconds".
+ * <p>
+ * The history is fed by a single stream (see {@link #attach(Flowable)}), which never blocks and
+ * never allocates. Any number of threads can read concurrently: the samples are copied into
+ * arrays provided by the caller, the timestamp range is looked up with a binary search, and the
+ * copy is validated against the writer cursor and repeated if the writer overwrote it in the
+ * meantime, so every snapshot is consistent. The samples are stored with ordered writes after the
+ * writer cursor is advanced, so that a reader that sees a new sample also sees the new cursor.
+ * <p>
+ * Samples with a timestamp not greater than the previous one are discarded.
+ */
+public final class SensorHistory {
+
+    private static final int DEFAULT_DIMENSION = 3;
+
+    /**
+     * Sampling rates are only hints, so the ring is sized for a rate 50% higher than requested.
+     */
+    private static final float RATE_HEADROOM = 1.5F;
+
+    /**
+     * Period assumed for {@link SensorManager#SENSOR_DELAY_FASTEST}: 1 kHz, above the fastest
+     * rate of the common motion sensors.
+     */
+    private static final int FASTEST_PERIOD_US = 1000;
+
+    /**
+     * Maximum number of slots of the ring: 1M samples, i.e. about 20 MB with 3 values per sample.
+     */
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private final int capacity;
+
+    private final int mask;
+
+    /**
+     * Number of the oldest slots of the ring never returned to the readers, so that a reader is
+     * not invalidated by every single write when the ring is full.
+     */
+    private final int guard;
+
+    private final int dimension;
+
+    private final AtomicLongArray timestamps;
+
+    /**
+     * Raw int bits of the values.
+     */
+    private final AtomicIntegerArray values;
+
+    private final AtomicLong published = new AtomicLong(-1);
+
+    private volatile long claimed = -1;
+
+    private SensorHistory(Builder builder) {
+        long samples = (long) Math.ceil((double) builder.durationUs / builder.samplingPeriodUs * RATE_HEADROOM);
+        // with a quarter of guard slots, the ring never exceeds MAX_CAPACITY
+        int readable = (int) Math.max(1, Math.min(samples, MAX_CAPACITY / 4 * 3));
+        this.capacity = roundToPowerOfTwo(readable + readable / 4 + 1);
+        this.mask = capacity - 1;
+        this.guard = capacity - readable;
+        this.dimension = builder.dimension;
+        this.timestamps = new AtomicLongArray(capacity);
+        this.values = new AtomicIntegerArray(capacity * dimension);
+    }
+
+    public static class Builder {
+        private final long durationUs;
+
+        private final long samplingPeriodUs;
+
+        private int dimension = DEFAULT_DIMENSION;
+
+        /**
+         * The ring is limited to about one million samples, whatever the duration.
+         *
+         * @param duration         How long the samples are retained.
+         * @param unit             Unit of duration.
+         * @param samplingPeriodUs Expected time between two samples, in microseconds, or one of
+         *                         the SENSOR_DELAY_* constants of {@link SensorManager}.
+         *                         {@link SensorManager#SENSOR_DELAY_FASTEST} is sized for 1 kHz.
+         */
+        public Builder(long duration, TimeUnit unit, int samplingPeriodUs) {
+            if (samplingPeriodUs < 0) {
+                throw new IllegalArgumentException("samplingPeriodUs >= 0 required but it was " + samplingPeriodUs);
+            }
+            this.durationUs = unit.toMicros(duration);
+            this.samplingPeriodUs = BatchedSensorFlowable.toPeriodUs(samplingPeriodUs, FASTEST_PERIOD_US);
+        }
+
+        /**
+         * Sets the number of values stored for every sample. The default is 3 (x, y, z).
+         */
+        public Builder setDimension(int dimension) {
+            if (dimension <= 0) {
+                throw new IllegalArgumentException("dimension > 0 required but it was " + dimension);
+            }
+            this.dimension = dimension;
+            return this;
+        }
+
+        public SensorHistory build() {
+            return new SensorHistory(this);
+        }
+    }
+
+    /**
+     * Subscribes to the source and stores its events. Only one source at a time can feed the
+     * history. If the source fails the recording stops, and the samples already stored can still
+     * be queried. The error is delivered to {@link RxJavaPlugins#onError(Throwable)}, use
+     * {@link #attach(Flowable, Consumer)} to handle it.
+     *
+     * @return the Disposable that stops the recording.
+     */
+    public Disposable attach(Flowable<RxSensorEvent> source) {
+        return attach(source, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) throws Exception {
+                RxJavaPlugins.onError(throwable);
+            }
+        });
+    }
+
+    /**
+     * See {@link #attach(Flowable)}.
+     *
+     * @param onError Receives the error of the source, which stops the recording.
+     */
+    public Disposable attach(Flowable<RxSensorEvent> source, Consumer<? super Throwable> onError) {
+        return source.subscribe(new Consumer<RxSensorEvent>() {
+            @Override
+            public void accept(RxSensorEvent rxSensorEvent) throws Exception {
+                add(rxSensorEvent);
+            }
+        }, onError);
+    }
+
+    /**
+     * Stores an event. It must be called by one thread at a time. The values missing from an
+     * event with fewer values than the dimension are stored as 0.
+     */
+    public void add(RxSensorEvent event) {
+        long last = published.get();
+        if (last >= 0 && event.timestamp <= timestamps.get((int) last & mask)) {
+            return;
+        }
+
+        long seq = last + 1;
+        claimed = seq;
+        int slot = (int) seq & mask;
+        timestamps.lazySet(slot, event.timestamp);
+        int offset = slot * dimension;
+        int length = Math.min(dimension, event.values.length);
+        for (int i = 0; i < dimension; i++) {
+            values.lazySet(offset + i, i < length ? Float.floatToRawIntBits(event.values[i]) : 0);
+        }
+        published.lazySet(seq);
+    }
+
+    /**
+     * Copies the samples with timestamp between fromTimestamp and toTimestamp (both included).
+     * If the arrays are too small, only the most recent samples are copied.
+     *
+     * @param fromTimestamp  Start of the range, in nanoseconds.
+     * @param toTimestamp    End of the range, in nanoseconds.
+     * @param timestampsOut  Receives the timestamps of the samples.
+     * @param valuesOut      Receives the values of the samples, interleaved: the values of the
+     *                       sample i are stored from index i * dimension.
+     * @return the number of samples copied.
+     */
+    public int snapshot(long fromTimestamp, long toTimestamp, long[] timestampsOut, float[] valuesOut) {
+        int maxSamples = Math.min(timestampsOut.length, valuesOut.length / dimension);
+
+        for (; ; ) {
+            long last = published.get();
+            if (last < 0 || toTimestamp < fromTimestamp) {
+                return 0;
+            }
+            long first = Math.max(0, last - capacity + 1 + guard);
+
+            long from = lowerBound(first, last + 1, fromTimestamp);
+            long to = toTimestamp == Long.MAX_VALUE ? last + 1 : lowerBound(from, last + 1, toTimestamp + 1);
+            from = Math.max(from, to - maxSamples);
+
+            for (long seq = from; seq < to; seq++) {
+                int slot = (int) seq & mask;
+                int index = (int) (seq - from);
+                timestampsOut[index] = timestamps.get(slot);
+                for (int i = 0; i < dimension; i++) {
+                    valuesOut[index * dimension + i] = Float.intBitsToFloat(values.get(slot * dimension + i));
+                }
+            }
+
+            if (claimed - first < capacity) {
+                return (int) (to - from);
+            }
+        }
+    }
+
+    /**
+     * Copies the samples of the last period of time, measured from the most recent sample. See
+     * {@link #snapshot(long, long, long[], float[])}.
+     */
+    public int snapshotLast(long duration, TimeUnit unit, long[] timestampsOut, float[] valuesOut) {
+        long latest = getLatestTimestamp();
+        if (latest == Long.MIN_VALUE) {
+            return 0;
+        }
+        return snapshot(latest - unit.toNanos(duration), Long.MAX_VALUE, timestampsOut, valuesOut);
+    }
+
+    /**
+     * @return the timestamp of the most recent sample, or {@link Long#MIN_VALUE} if the history is
+     * empty.
+     */
+    public long getLatestTimestamp() {
+        for (; ; ) {
+            long last = published.get();
+            if (last < 0) {
+                return Long.MIN_VALUE;
+            }
+            long timestamp = timestamps.get((int) last & mask);
+            if (claimed - last < capacity) {
+                return timestamp;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of samples that can be returned by a snapshot.
+     */
+    public int capacity() {
+        return capacity - guard;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the first sequence in [from, to) whose timestamp is greater or equal to the provided
+     * one, or to if there is none.
+     */
+    private long lowerBound(long from, long to, long timestamp) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestamps.get((int) mid & mask) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+}
@@ -0,0 +1,479 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.Sensor;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.DisposableSubscriber;
+
+/**
+ * Multicasts a stream of {@link RxSensorEvent} to many subscribers through a single-writer,
+ * multi-reader preallocated ring buffer.
+ * <p>
+ * Unlike {@code publish()} or {@code share()}, subscribers are not tied to the request rate of
+ * the slowest one: the thread that delivers the upstream events (usually the sensor callback
+ * thread) only copies the values into the ring and advances a sequence cursor, while every
+ * subscriber follows the cursor at its own pace, on its own {@link Scheduler} worker. When a
+ * subscriber lags behind more than it is allowed to, its own {@link OverflowPolicy} is applied,
+ * without affecting the others.
+ * <p>
+ * A subscriber can optionally start from the last N samples already stored in the ring.
+ * <p>
+ * The ring has a few more slots than its capacity, so that a subscriber that reads the oldest
+ * sample it is allowed to read is not in the slot the writer is overwriting. The fields of a
+ * sample are stored with ordered writes after the sequence is claimed, and read before checking
+ * the claimed sequence again: a sample overwritten while it was being read is detected and
+ * discarded.
+ */
+public final class SensorRingBuffer {
+
+    /**
+     * What a subscriber does when it lags behind the writer more than its maximum lag.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Skips the samples that exceed the maximum lag, and continues from the oldest sample
+         * still within it.
+         */
+        DROP_OLDEST,
+        /**
+         * Skips all the pending samples, and continues from the most recent one.
+         */
+        SKIP_TO_LATEST,
+        /**
+         * Terminates the subscriber with a {@link MissingBackpressureException}.
+         */
+        ERROR
+    }
+
+    private static final int DEFAULT_VALUES_PER_SAMPLE = 3;
+
+    /**
+     * Minimum number of slots between the writer and the oldest sample that can be read.
+     */
+    private static final int GUARD_GAP = 8;
+
+    private static final Reader[] EMPTY = new Reader[0];
+
+    private final Flowable<RxSensorEvent> upstream;
+
+    private final int capacity;
+
+    private final int size;
+
+    private final int mask;
+
+    private final int valuesPerSample;
+
+    /**
+     * Raw int bits of the values.
+     */
+    private final AtomicIntegerArray values;
+
+    private final AtomicIntegerArray lengths;
+
+    private final AtomicIntegerArray accuracies;
+
+    private final AtomicLongArray timestamps;
+
+    private final AtomicReferenceArray<Sensor> sensors;
+
+    /**
+     * Sequence of the last sample that is completely written and visible to the readers.
+     */
+    private final AtomicLong published = new AtomicLong(-1);
+
+    /**
+     * Sequence of the sample being written. Once a sample is claimed, the slot of the sample
+     * {@code claimed - size} can no longer be read.
+     */
+    private volatile long claimed = -1;
+
+    private final AtomicReference<Reader[]> readers = new AtomicReference<>(EMPTY);
+
+    private final AtomicBoolean connected = new AtomicBoolean();
+
+    private volatile boolean done;
+
+    private Throwable error;
+
+    private SensorRingBuffer(Builder builder) {
+        this.upstream = builder.upstream;
+        this.capacity = builder.capacity;
+        this.size = roundToPowerOfTwo(capacity + GUARD_GAP);
+        this.mask = size - 1;
+        this.valuesPerSample = builder.valuesPerSample;
+        this.values = new AtomicIntegerArray(size * valuesPerSample);
+        this.lengths = new AtomicIntegerArray(size);
+        this.accuracies = new AtomicIntegerArray(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.sensors = new AtomicReferenceArray<>(size);
+    }
+
+    public static class Builder {
+        private final Flowable<RxSensorEvent> upstream;
+
+        private final int capacity;
+
+        private int valuesPerSample = DEFAULT_VALUES_PER_SAMPLE;
+
+        /**
+         * @param upstream The source of data that feeds the ring.
+         * @param capacity Number of samples retained in the ring.
+         */
+        public Builder(Flowable<RxSensorEvent> upstream, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity > 0 required but it was " + capacity);
+            }
+            this.upstream = upstream;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Sets the maximum number of values stored for every sample. Additional values are
+         * discarded. The default is 3 (x, y, z).
+         */
+        public Builder setValuesPerSample(int valuesPerSample) {
+            if (valuesPerSample <= 0) {
+                throw new IllegalArgumentException("valuesPerSample > 0 required but it was " + valuesPerSample);
+            }
+            this.valuesPerSample = valuesPerSample;
+            return this;
+        }
+
+        public SensorRingBuffer build() {
+            return new SensorRingBuffer(this);
+        }
+    }
+
+    /**
+     * Subscribes the ring to the upstream. The ring can be connected only once.
+     *
+     * @return A Disposable that disconnects the ring from the upstream.
+     */
+    public Disposable connect() {
+        if (!connected.compareAndSet(false, true)) {
+            throw new IllegalStateException("SensorRingBuffer already connected");
+        }
+        Writer writer = new Writer();
+        upstream.subscribe(writer);
+        return writer;
+    }
+
+    /**
+     * See {@link #observe(int, int, OverflowPolicy, Scheduler)}. The subscriber receives only new
+     * samples, it can lag behind for the whole capacity of the ring, then the oldest samples are
+     * dropped. Samples are delivered on {@link Schedulers#computation()}.
+     */
+    public Flowable<RxSensorEvent> observe() {
+        return observe(0, capacity, OverflowPolicy.DROP_OLDEST, Schedulers.computation());
+    }
+
+    /**
+     * Creates a Flowable that reads the samples from the ring.
+     *
+     * @param replay    Number of samples already in the ring that are emitted at subscription
+     *                  time, if available.
+     * @param maxLag    Maximum number of samples the subscriber can lag behind the writer before
+     *                  the policy is applied. It is limited to the capacity of the ring.
+     * @param policy    The {@link OverflowPolicy} applied when the subscriber lags behind too
+     *                  much.
+     * @param scheduler The Scheduler on which the samples are delivered.
+     * @return A Flowable that emits {@link RxSensorEvent}
+     */
+    public Flowable<RxSensorEvent> observe(final int replay, final int maxLag, final OverflowPolicy policy,
+                                           final Scheduler scheduler) {
+        if (maxLag <= 0) {
+            throw new IllegalArgumentException("maxLag > 0 required but it was " + maxLag);
+        }
+        return new Flowable<RxSensorEvent>() {
+            @Override
+            protected void subscribeActual(Subscriber<? super RxSensorEvent> s) {
+                Reader reader = new Reader(s, Math.min(maxLag, capacity), policy, scheduler.createWorker(),
+                        startSequence(replay));
+                s.onSubscribe(reader);
+                add(reader);
+                reader.signal();
+            }
+        };
+    }
+
+    /**
+     * @return the number of samples retained in the ring.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    void write(RxSensorEvent event) {
+        long seq = published.get() + 1;
+        claimed = seq;
+
+        // ordered writes: a reader that sees any of them also sees the new claimed sequence
+        int slot = (int) seq & mask;
+        int offset = slot * valuesPerSample;
+        int length = Math.min(event.values.length, valuesPerSample);
+        for (int i = 0; i < length; i++) {
+            values.lazySet(offset + i, Float.floatToRawIntBits(event.values[i]));
+        }
+        lengths.lazySet(slot, length);
+        accuracies.lazySet(slot, event.accuracy);
+        timestamps.lazySet(slot, event.timestamp);
+        sensors.lazySet(slot, event.sensor);
+
+        published.lazySet(seq);
+        signalAll();
+    }
+
+    /**
+     * Copies the sample into a new event. Returns null if the writer overwrote the slot while it
+     * was being read.
+     */
+    RxSensorEvent read(long seq) {
+        int slot = (int) seq & mask;
+        int offset = slot * valuesPerSample;
+        int length = lengths.get(slot);
+        float[] sampleValues = new float[length];
+        for (int i = 0; i < length; i++) {
+            sampleValues[i] = Float.intBitsToFloat(values.get(offset + i));
+        }
+        RxSensorEvent event = RxSensorEvent.wrap(sampleValues, sensors.get(slot), accuracies.get(slot),
+                timestamps.get(slot));
+
+        if (claimed - seq >= size) {
+            return null;
+        }
+        return event;
+    }
+
+    long startSequence(int replay) {
+        long next = published.get() + 1;
+        return Math.max(oldestAvailable(), next - Math.max(0, replay));
+    }
+
+    long oldestAvailable() {
+        return Math.max(0, claimed - capacity + 1);
+    }
+
+    void signalAll() {
+        for (Reader reader : readers.get()) {
+            reader.signal();
+        }
+    }
+
+    void add(Reader reader) {
+        for (; ; ) {
+            Reader[] current = readers.get();
+            Reader[] next = new Reader[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = reader;
+            if (readers.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    void remove(Reader reader) {
+        for (; ; ) {
+            Reader[] current = readers.get();
+            if (current == EMPTY) {
+                return;
+            }
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == reader) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Reader[] next;
+            if (current.length == 1) {
+                next = EMPTY;
+            } else {
+                next = new Reader[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (readers.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+
+    final class Writer extends DisposableSubscriber<RxSensorEvent> {
+
+        @Override
+        public void onNext(RxSensorEvent event) {
+            write(event);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done = true;
+            signalAll();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            signalAll();
+        }
+    }
+
+    final class Reader implements Subscription, Runnable {
+        private final Subscriber<? super RxSensorEvent> actual;
+
+        private final int maxLag;
+
+        private final OverflowPolicy policy;
+
+        private final Scheduler.Worker worker;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        private long sequence;
+
+        Reader(Subscriber<? super RxSensorEvent> actual, int maxLag, OverflowPolicy policy, Scheduler.Worker worker,
+               long sequence) {
+            this.actual = actual;
+            this.maxLag = maxLag;
+            this.policy = policy;
+            this.worker = worker;
+            this.sequence = sequence;
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) {
+                worker.schedule(this);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                RxJavaPlugins.onError(new IllegalArgumentException("n > 0 required but it was " + n));
+                return;
+            }
+            for (; ; ) {
+                long r = requested.get();
+                long u = r + n < 0L ? Long.MAX_VALUE : r + n;
+                if (requested.compareAndSet(r, u)) {
+                    break;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                remove(this);
+                worker.dispose();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            long seq = sequence;
+
+            for (; ; ) {
+                long r = requested.get();
+                long e = 0L;
+
+                for (; ; ) {
+                    if (cancelled) {
+                        return;
+                    }
+
+                    boolean d = done;
+                    long last = published.get();
+
+                    if (last - seq >= maxLag) {
+                        if (policy == OverflowPolicy.ERROR) {
+                            cancel();
+                            actual.onError(new MissingBackpressureException(
+                                    "Subscriber lagged behind more than " + maxLag + " samples"));
+                            return;
+                        }
+                        seq = policy == OverflowPolicy.SKIP_TO_LATEST ? last : last - maxLag + 1;
+                    }
+
+                    if (seq > last) {
+                        if (d) {
+                            cancel();
+                            Throwable ex = error;
+                            if (ex != null) {
+                                actual.onError(ex);
+                            } else {
+                                actual.onComplete();
+                            }
+                            return;
+                        }
+                        break;
+                    }
+
+                    if (e == r) {
+                        break;
+                    }
+
+                    RxSensorEvent event = read(seq);
+                    if (event == null) {
+                        // overwritten while reading: handled as an overflow on the next round
+                        seq = Math.max(seq, oldestAvailable());
+                        if (policy == OverflowPolicy.ERROR) {
+                            cancel();
+                            actual.onError(new MissingBackpressureException(
+                                    "Subscriber lagged behind the whole ring buffer"));
+                            return;
+                        }
+                        continue;
+                    }
+
+                    seq++;
+                    actual.onNext(event);
+                    e++;
+                }
+
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+
+                sequence = seq;
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+    }
+}
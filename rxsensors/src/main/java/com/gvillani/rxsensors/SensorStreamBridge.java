@@ -0,0 +1,461 @@
+package com.gvillani.rxsensors;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposables;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiConsumer;
+import io.reactivex.functions.Consumer;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.DisposableSubscriber;
+
+/**
+ * Streams {@link RxSensorEvent}s to another process over a byte channel, e.g. a TCP
+ * {@link java.nio.channels.SocketChannel} on localhost, or a Unix domain socket channel where
+ * the platform provides one, and decodes them back on the other side.
+ * <p>
+ * The events are sent in batches, as binary frames made of a 16 bytes header (magic, payload
+ * length, number of samples, values per sample) followed by the samples (timestamp, accuracy,
+ * values), in network byte order. Header and payload are sent with a single gathering write if
+ * the channel is a {@link GatheringByteChannel}, e.g. a socket channel, or with two writes
+ * otherwise, e.g. for the channel of an Android {@code LocalSocket} stream obtained with
+ * {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)}.
+ * <p>
+ * Backpressure works in both directions: the exporter requests a new batch from upstream only
+ * after the previous one is written, and the receiver reads a frame from the channel only when
+ * its subscriber requests more events, so a slow reader stalls the writer through the flow
+ * control of the socket. Both sides use blocking channels, so they should run on
+ * {@link io.reactivex.schedulers.Schedulers#io()}.
+ */
+public final class SensorStreamBridge {
+
+    static final int MAGIC = 0x52585342;
+
+    static final int HEADER_SIZE = 16;
+
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * See {@link #export(Flowable, WritableByteChannel, int, int, long, TimeUnit, Scheduler)}. The
+     * frames are written on {@link Schedulers#io()}.
+     */
+    public static Completable export(Flowable<RxSensorEvent> source, WritableByteChannel channel,
+                                     int dimension, int batchSize, long maxDelay, TimeUnit unit) {
+        return export(source, channel, dimension, batchSize, maxDelay, unit, Schedulers.io());
+    }
+
+    /**
+     * Writes the events of the source to the channel, in frames of at most batchSize events. A
+     * frame that is not full is written maxDelay after its first event. The events are handed
+     * over to the scheduler, which encodes and writes every frame, so the thread of the source
+     * never blocks on the channel. The channel is closed when the source terminates or the
+     * Completable is disposed.
+     *
+     * @param source    The events to send.
+     * @param channel   A blocking channel.
+     * @param dimension Number of values sent for every event.
+     * @param batchSize Maximum number of events of a frame.
+     * @param maxDelay  Maximum time an event waits for its batch to fill.
+     * @param unit      Unit of maxDelay.
+     * @param scheduler The Scheduler on which the frames are written, e.g. {@link Schedulers#io()}.
+     * @return A Completable that completes when all the events are written, or fails on the
+     * first I/O error.
+     */
+    public static Completable export(final Flowable<RxSensorEvent> source, final WritableByteChannel channel,
+                                     final int dimension, final int batchSize,
+                                     final long maxDelay, final TimeUnit unit, final Scheduler scheduler) {
+        if (dimension <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("dimension and batchSize must be > 0");
+        }
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(@NonNull CompletableEmitter e) throws Exception {
+                Scheduler.Worker worker = scheduler.createWorker();
+                ExportSubscriber subscriber = new ExportSubscriber(e, channel, worker, dimension, batchSize,
+                        unit.toNanos(maxDelay));
+                // terminating the emitter disposes them as well
+                e.setDisposable(new CompositeDisposable(subscriber, worker, Disposables.fromAction(new Action() {
+                    @Override
+                    public void run() throws Exception {
+                        channel.close();
+                    }
+                })));
+                source.subscribe(subscriber);
+            }
+        });
+    }
+
+    /**
+     * Creates a Flowable that reads the frames written by
+     * {@link #export(Flowable, WritableByteChannel, int, int, long, TimeUnit)} and emits the
+     * decoded events. It completes when the channel reaches the end of the stream. The sensor of
+     * the events is null.
+     *
+     * @param channel A blocking channel.
+     * @return A Flowable that emits {@link RxSensorEvent}.
+     */
+    public static Flowable<RxSensorEvent> receive(final ReadableByteChannel channel) {
+        return Flowable.generate(new Callable<FrameReader>() {
+            @Override
+            public FrameReader call() throws Exception {
+                return new FrameReader(channel);
+            }
+        }, new BiConsumer<FrameReader, Emitter<RxSensorEvent>>() {
+            @Override
+            public void accept(@NonNull FrameReader reader, @NonNull Emitter<RxSensorEvent> emitter) throws Exception {
+                RxSensorEvent event = reader.next();
+                if (event != null) {
+                    emitter.onNext(event);
+                } else {
+                    emitter.onComplete();
+                }
+            }
+        }, new Consumer<FrameReader>() {
+            @Override
+            public void accept(@NonNull FrameReader reader) throws Exception {
+                channel.close();
+            }
+        });
+    }
+
+    static int sampleSize(int dimension) {
+        return 8 + 4 + 4 * dimension;
+    }
+
+    /**
+     * The thread of the source only queues the events: they are encoded and written by the worker,
+     * like {@code observeOn}, so a blocking write never stalls the source. The delayed writes run
+     * on the same worker, so the frame is only ever touched by one thread at a time.
+     */
+    static final class ExportSubscriber extends DisposableSubscriber<RxSensorEvent> implements Runnable {
+        private final CompletableEmitter emitter;
+
+        private final WritableByteChannel channel;
+
+        private final Scheduler.Worker worker;
+
+        private final int dimension;
+
+        private final int batchSize;
+
+        private final long maxDelayNs;
+
+        private final ByteBuffer[] frame;
+
+        /**
+         * Holds at most batchSize events, as the upstream is never requested more than that.
+         */
+        private final Queue<RxSensorEvent> queue;
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean done;
+
+        private Throwable error;
+
+        private boolean terminated;
+
+        private int pending;
+
+        /**
+         * Number of frames written, used by the delayed writes to recognize their frame.
+         */
+        private long frames;
+
+        /**
+         * The frame for which a delayed write is scheduled.
+         */
+        private long delayedFrame = -1;
+
+        ExportSubscriber(CompletableEmitter emitter, WritableByteChannel channel, Scheduler.Worker worker,
+                         int dimension, int batchSize, long maxDelayNs) {
+            this.emitter = emitter;
+            this.channel = channel;
+            this.worker = worker;
+            this.dimension = dimension;
+            this.batchSize = batchSize;
+            this.maxDelayNs = maxDelayNs;
+            this.frame = new ByteBuffer[]{
+                    ByteBuffer.allocateDirect(HEADER_SIZE),
+                    ByteBuffer.allocateDirect(batchSize * sampleSize(dimension))
+            };
+            this.queue = new ArrayBlockingQueue<>(batchSize);
+        }
+
+        @Override
+        protected void onStart() {
+            request(batchSize);
+        }
+
+        @Override
+        public void onNext(RxSensorEvent event) {
+            if (done) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                cancel();
+                onError(new MissingBackpressureException("More events than requested"));
+                return;
+            }
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (done) {
+                RxJavaPlugins.onError(t);
+                return;
+            }
+            error = t;
+            done = true;
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                worker.schedule(this);
+            }
+        }
+
+        /**
+         * Drains the queue on the worker.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                if (terminated) {
+                    return;
+                }
+
+                boolean d = done;
+                RxSensorEvent event;
+                while ((event = queue.poll()) != null) {
+                    encode(event);
+                    if (pending == batchSize && !flush()) {
+                        return;
+                    }
+                }
+
+                if (d) {
+                    terminated = true;
+                    if (error != null) {
+                        emitter.onError(error);
+                    } else if (pending == 0 || writeFrame()) {
+                        emitter.onComplete();
+                    }
+                    return;
+                }
+                if (pending != 0) {
+                    if (maxDelayNs <= 0) {
+                        if (!flush()) {
+                            return;
+                        }
+                    } else if (delayedFrame != frames) {
+                        scheduleFlush();
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private void encode(RxSensorEvent event) {
+            ByteBuffer payload = frame[1];
+            payload.putLong(event.timestamp);
+            payload.putInt(event.accuracy);
+            int length = Math.min(dimension, event.values.length);
+            for (int i = 0; i < dimension; i++) {
+                payload.putFloat(i < length ? event.values[i] : 0F);
+            }
+            pending++;
+        }
+
+        private void scheduleFlush() {
+            final long scheduledFrame = frames;
+            delayedFrame = scheduledFrame;
+            worker.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!terminated && frames == scheduledFrame && pending != 0) {
+                        flush();
+                    }
+                }
+            }, maxDelayNs, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return false if the write failed, in which case the subscriber is terminated.
+         */
+        private boolean flush() {
+            int written = pending;
+            if (writeFrame()) {
+                request(written);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return false if the write failed, in which case the subscriber is terminated.
+         */
+        private boolean writeFrame() {
+            ByteBuffer header = frame[0];
+            ByteBuffer payload = frame[1];
+            payload.flip();
+            header.clear();
+            header.putInt(MAGIC).putInt(payload.remaining()).putInt(pending).putInt(dimension);
+            header.flip();
+
+            try {
+                if (channel instanceof GatheringByteChannel) {
+                    while (payload.hasRemaining()) {
+                        ((GatheringByteChannel) channel).write(frame);
+                    }
+                } else {
+                    while (header.hasRemaining()) {
+                        channel.write(header);
+                    }
+                    while (payload.hasRemaining()) {
+                        channel.write(payload);
+                    }
+                }
+            } catch (IOException ex) {
+                terminated = true;
+                cancel();
+                // a write interrupted by the disposal is not an error
+                if (!emitter.isDisposed()) {
+                    emitter.onError(ex);
+                }
+                return false;
+            } finally {
+                payload.clear();
+                pending = 0;
+                frames++;
+            }
+            return true;
+        }
+    }
+
+    static final class FrameReader {
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+
+        private ByteBuffer payload = ByteBuffer.allocateDirect(0);
+
+        private int remaining;
+
+        private int dimension;
+
+        FrameReader(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return the next event, or null at the end of the stream.
+         */
+        RxSensorEvent next() throws IOException {
+            while (remaining == 0) {
+                if (!readFrame()) {
+                    return null;
+                }
+            }
+
+            long timestamp = payload.getLong();
+            int accuracy = payload.getInt();
+            float[] values = new float[dimension];
+            for (int i = 0; i < dimension; i++) {
+                values[i] = payload.getFloat();
+            }
+            remaining--;
+            return new RxSensorEvent(values, null, accuracy, timestamp);
+        }
+
+        private boolean readFrame() throws IOException {
+            header.clear();
+            if (!readFully(header, true)) {
+                return false;
+            }
+            header.flip();
+
+            int magic = header.getInt();
+            int length = header.getInt();
+            int count = header.getInt();
+            int frameDimension = header.getInt();
+            if (magic != MAGIC || count < 0 || frameDimension <= 0 || length > MAX_PAYLOAD_SIZE
+                    || (long) count * sampleSize(frameDimension) != length) {
+                throw new StreamCorruptedException("Invalid frame header");
+            }
+
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocateDirect(length);
+            }
+            payload.clear();
+            payload.limit(length);
+            readFully(payload, false);
+            payload.flip();
+
+            remaining = count;
+            dimension = frameDimension;
+            return true;
+        }
+
+        /**
+         * @return false if the stream ended before any byte was read and eofAllowed is true.
+         */
+        private boolean readFully(ByteBuffer buffer, boolean eofAllowed) throws IOException {
+            int start = buffer.position();
+            while (buffer.hasRemaining()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+                if (channel.read(buffer) < 0) {
+                    if (eofAllowed && buffer.position() == start) {
+                        return false;
+                    }
+                    throw new EOFException("Stream ended in the middle of a frame");
+                }
+            }
+            return true;
+        }
+    }
+
+    private SensorStreamBridge() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,137 @@
+package com.gvillani.rxsensors.offline;
+
+import com.gvillani.rxsensors.RxSensorEvent;
+
+/**
+ * Count, mean, variance, minimum and maximum of every axis of a stream of events. Partial
+ * statistics can be merged without loss of precision.
+ * <p>
+ * Events with fewer values than the dimension contribute only to the axes they have, so every
+ * axis has its own count.
+ */
+public final class AxisStatistics {
+
+    private final int dimension;
+
+    private long count;
+
+    private final long[] counts;
+
+    private final double[] mean;
+
+    private final double[] m2;
+
+    private final float[] min;
+
+    private final float[] max;
+
+    public AxisStatistics(int dimension) {
+        this.dimension = dimension;
+        this.counts = new long[dimension];
+        this.mean = new double[dimension];
+        this.m2 = new double[dimension];
+        this.min = new float[dimension];
+        this.max = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            min[i] = Float.POSITIVE_INFINITY;
+            max[i] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @return a {@link RecordingReducer} that computes the statistics of the first dimension
+     * values of each event.
+     */
+    public static RecordingReducer<AxisStatistics> reducer(final int dimension) {
+        return new RecordingReducer<AxisStatistics>() {
+            @Override
+            public AxisStatistics create() {
+                return new AxisStatistics(dimension);
+            }
+
+            @Override
+            public void accept(AxisStatistics accumulator, RxSensorEvent event) {
+                accumulator.add(event.values);
+            }
+
+            @Override
+            public AxisStatistics merge(AxisStatistics left, AxisStatistics right) {
+                return left.merge(right);
+            }
+        };
+    }
+
+    public void add(float[] values) {
+        count++;
+        int n = Math.min(dimension, values.length);
+        for (int i = 0; i < n; i++) {
+            float value = values[i];
+            double delta = value - mean[i];
+            mean[i] += delta / ++counts[i];
+            m2[i] += delta * (value - mean[i]);
+            if (value < min[i]) {
+                min[i] = value;
+            }
+            if (value > max[i]) {
+                max[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Adds the provided statistics to this one (parallel algorithm of Chan et al.).
+     *
+     * @return this object.
+     */
+    public AxisStatistics merge(AxisStatistics other) {
+        for (int i = 0; i < dimension; i++) {
+            long otherCount = other.counts[i];
+            if (otherCount == 0) {
+                continue;
+            }
+            long total = counts[i] + otherCount;
+            double delta = other.mean[i] - mean[i];
+            mean[i] += delta * otherCount / total;
+            m2[i] += other.m2[i] + delta * delta * counts[i] * otherCount / total;
+            min[i] = Math.min(min[i], other.min[i]);
+            max[i] = Math.max(max[i], other.max[i]);
+            counts[i] = total;
+        }
+        count += other.count;
+        return this;
+    }
+
+    /**
+     * @return the number of events added.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of values of the axis, lower than {@link #getCount()} if some events
+     * had fewer values than the dimension.
+     */
+    public long getCount(int axis) {
+        return counts[axis];
+    }
+
+    public double getMean(int axis) {
+        return mean[axis];
+    }
+
+    /**
+     * @return the population variance of the axis.
+     */
+    public double getVariance(int axis) {
+        return counts[axis] > 0 ? m2[axis] / counts[axis] : 0;
+    }
+
+    public float getMin(int axis) {
+        return min[axis];
+    }
+
+    public float getMax(int axis) {
+        return max[axis];
+    }
+}
@@ -0,0 +1,27 @@
+package com.gvillani.rxsensors.offline;
+
+import com.gvillani.rxsensors.RxSensorEvent;
+
+/**
+ * Accumulates the events produced by a chunk of a recording into a partial result, and merges
+ * the partial results of adjacent chunks. {@link #merge(Object, Object)} is always called with
+ * the result of the earlier chunk on the left, so an associative merge gives the same result
+ * regardless of the number of threads.
+ *
+ * @param <R> the type of the result
+ */
+public interface RecordingReducer<R> {
+
+    /**
+     * @return a new, empty, accumulator.
+     */
+    R create();
+
+    void accept(R accumulator, RxSensorEvent event) throws Exception;
+
+    /**
+     * @return the accumulator that combines left followed by right. It can be one of the two
+     * arguments.
+     */
+    R merge(R left, R right);
+}
@@ -0,0 +1,112 @@
+package com.gvillani.rxsensors.offline;
+
+import com.gvillani.rxsensors.RxSensorEvent;
+
+import java.util.List;
+
+/**
+ * A recorded stream of sensor data, stored by columns in primitive arrays. The samples must be
+ * sorted by timestamp.
+ */
+public final class SensorRecording {
+
+    private final long[] timestamps;
+
+    private final float[] values;
+
+    private final int[] accuracies;
+
+    private final int dimension;
+
+    /**
+     * @param timestamps The time in nanosecond of each sample, in ascending order.
+     * @param values     The values of the samples, interleaved: the values of the sample i are
+     *                   stored from index i * dimension.
+     * @param accuracies The accuracy of each sample.
+     * @param dimension  The number of values of each sample.
+     */
+    public SensorRecording(long[] timestamps, float[] values, int[] accuracies, int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension > 0 required but it was " + dimension);
+        }
+        if (values.length != timestamps.length * dimension || accuracies.length != timestamps.length) {
+            throw new IllegalArgumentException("timestamps, values and accuracies have inconsistent lengths");
+        }
+        for (int i = 1; i < timestamps.length; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                throw new IllegalArgumentException("timestamps are not sorted at index " + i);
+            }
+        }
+        this.timestamps = timestamps;
+        this.values = values;
+        this.accuracies = accuracies;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Creates a recording from a list of events. Only the first dimension values of each event
+     * are stored.
+     */
+    public static SensorRecording fromEvents(List<? extends RxSensorEvent> events, int dimension) {
+        int size = events.size();
+        long[] timestamps = new long[size];
+        float[] values = new float[size * dimension];
+        int[] accuracies = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            RxSensorEvent event = events.get(i);
+            timestamps[i] = event.timestamp;
+            accuracies[i] = event.accuracy;
+            System.arraycopy(event.values, 0, values, i * dimension, Math.min(dimension, event.values.length));
+        }
+        return new SensorRecording(timestamps, values, accuracies, dimension);
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    public float valueAt(int index, int axis) {
+        return values[index * dimension + axis];
+    }
+
+    public int accuracyAt(int index) {
+        return accuracies[index];
+    }
+
+    /**
+     * @return a new {@link RxSensorEvent} holding a copy of the sample at the provided index.
+     * The sensor of the event is null.
+     */
+    public RxSensorEvent eventAt(int index) {
+        float[] sample = new float[dimension];
+        System.arraycopy(values, index * dimension, sample, 0, dimension);
+        return new RxSensorEvent(sample, null, accuracies[index], timestamps[index]);
+    }
+
+    /**
+     * @return the index of the first sample with a timestamp greater or equal to the provided
+     * one, or {@link #size()} if there is no such sample.
+     */
+    public int indexOf(long timestamp) {
+        int low = 0;
+        int high = timestamps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,173 @@
+package com.gvillani.rxsensors;
+
+import com.gvillani.rxsensors.offline.SensorRecording;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownsamplerTest {
+
+    private static final int SIZE = 5000;
+
+    private static final long PERIOD_NS = 10000000L;
+
+    @Test
+    public void largestTriangleMatchesReference() {
+        SensorRecording recording = randomWalk(SIZE, 2);
+        for (int points : new int[]{3, 4, 10, 100, 999, SIZE - 1}) {
+            for (int axis = 0; axis < 2; axis++) {
+                int[] actual = Downsampler.largestTriangle(recording, 0, Long.MAX_VALUE, points, axis);
+                assertArrayEquals("points " + points, reference(recording, 0, SIZE, points, axis), actual);
+            }
+        }
+    }
+
+    @Test
+    public void largestTriangleOfARangeMatchesReference() {
+        SensorRecording recording = randomWalk(SIZE, 1);
+        int from = 1234;
+        int to = 4321;
+        int[] actual = Downsampler.largestTriangle(recording, from * PERIOD_NS, (to - 1) * PERIOD_NS, 50, 0);
+        assertArrayEquals(reference(recording, from, to, 50, 0), actual);
+    }
+
+    @Test
+    public void largestTriangleWithFewPoints() {
+        SensorRecording recording = randomWalk(10, 1);
+        assertArrayEquals(new int[]{0}, Downsampler.largestTriangle(recording, 0, Long.MAX_VALUE, 1, 0));
+        assertArrayEquals(new int[]{0, 9}, Downsampler.largestTriangle(recording, 0, Long.MAX_VALUE, 2, 0));
+        assertArrayEquals(new int[]{2, 3, 4}, Downsampler.largestTriangle(recording, 2 * PERIOD_NS, 4 * PERIOD_NS, 3, 0));
+        assertArrayEquals(new int[]{2, 3, 4}, Downsampler.largestTriangle(recording, 2 * PERIOD_NS, 4 * PERIOD_NS, 10, 0));
+        assertEquals(0, Downsampler.largestTriangle(recording, 100 * PERIOD_NS, Long.MAX_VALUE, 5, 0).length);
+    }
+
+    @Test
+    public void largestTriangleRejectsInvalidArguments() {
+        SensorRecording recording = randomWalk(10, 2);
+        int[][] invalid = {{0, 0}, {-1, 0}, {3, -1}, {3, 2}};
+        for (int[] arguments : invalid) {
+            try {
+                Downsampler.largestTriangle(recording, 0, Long.MAX_VALUE, arguments[0], arguments[1]);
+                fail("points " + arguments[0] + ", axis " + arguments[1] + " accepted");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void envelopesOfEventsWithMixedLengths() {
+        List<SampleEnvelope> envelopes = Flowable.just(
+                new RxSensorEvent(new float[]{1F, 10F}, null, 3, 0),
+                new RxSensorEvent(new float[]{3F, 20F, 100F}, null, 3, 1),
+                new RxSensorEvent(new float[]{2F}, null, 3, 2),
+                new RxSensorEvent(new float[]{5F}, null, 3, 10),
+                new RxSensorEvent(new float[]{7F, 30F, 200F}, null, 3, 11))
+                .compose(Downsampler.envelopes(10, TimeUnit.NANOSECONDS))
+                .toList()
+                .blockingGet();
+
+        // the dimension of the first event, the shorter events update only their own axes
+        assertEquals(2, envelopes.size());
+        assertEquals(3, envelopes.get(0).count);
+        assertArrayEquals(new float[]{1F, 10F}, envelopes.get(0).min, 0F);
+        assertArrayEquals(new float[]{3F, 20F}, envelopes.get(0).max, 0F);
+        assertArrayEquals(new float[]{2F, 15F}, envelopes.get(0).mean, 0F);
+        assertEquals(2, envelopes.get(1).count);
+        assertArrayEquals(new float[]{5F, 30F}, envelopes.get(1).min, 0F);
+        assertArrayEquals(new float[]{7F, 30F}, envelopes.get(1).max, 0F);
+        assertArrayEquals(new float[]{6F, 30F}, envelopes.get(1).mean, 0F);
+    }
+
+    @Test
+    public void anAxisWithoutValuesInTheBucketIsNaN() {
+        SampleEnvelope envelope = Flowable.just(
+                new RxSensorEvent(new float[]{1F, 2F}, null, 3, 0),
+                new RxSensorEvent(new float[]{3F}, null, 3, 10))
+                .compose(Downsampler.envelopes(10, TimeUnit.NANOSECONDS))
+                .blockingLast();
+
+        assertEquals(3F, envelope.mean[0], 0F);
+        assertTrue(Float.isNaN(envelope.min[1]));
+        assertTrue(Float.isNaN(envelope.max[1]));
+        assertTrue(Float.isNaN(envelope.mean[1]));
+    }
+
+    /**
+     * Random walk with occasional spikes, so that the selection is not driven by ties.
+     */
+    private static SensorRecording randomWalk(int size, int dimension) {
+        Random random = new Random(42);
+        long[] timestamps = new long[size];
+        float[] values = new float[size * dimension];
+        float[] level = new float[dimension];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = i * PERIOD_NS;
+            for (int axis = 0; axis < dimension; axis++) {
+                level[axis] += (float) random.nextGaussian();
+                float spike = random.nextInt(50) == 0 ? (float) random.nextGaussian() * 20F : 0F;
+                values[i * dimension + axis] = level[axis] + spike;
+            }
+        }
+        return new SensorRecording(timestamps, values, new int[size], dimension);
+    }
+
+    /**
+     * LTTB as published by Steinarsson (Downsampling Time Series for Visual Representation, 2013),
+     * over the samples [from, to) of the recording, with the time relative to the first sample.
+     */
+    private static int[] reference(SensorRecording recording, int from, int to, int threshold, int axis) {
+        int length = to - from;
+        double[] x = new double[length];
+        double[] y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = recording.timestampAt(from + i) - recording.timestampAt(from);
+            y[i] = recording.valueAt(from + i, axis);
+        }
+
+        int[] sampled = new int[threshold];
+        int sampledIndex = 0;
+        double every = (double) (length - 2) / (threshold - 2);
+        int a = 0;
+        sampled[sampledIndex++] = from;
+
+        for (int i = 0; i < threshold - 2; i++) {
+            int avgRangeStart = (int) Math.floor((i + 1) * every) + 1;
+            int avgRangeEnd = Math.min((int) Math.floor((i + 2) * every) + 1, length);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = avgRangeStart; j < avgRangeEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            avgX /= avgRangeEnd - avgRangeStart;
+            avgY /= avgRangeEnd - avgRangeStart;
+
+            int rangeOffs = (int) Math.floor(i * every) + 1;
+            int rangeTo = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int next = rangeOffs;
+            for (int j = rangeOffs; j < rangeTo; j++) {
+                double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a])) * 0.5;
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+            sampled[sampledIndex++] = from + next;
+            a = next;
+        }
+        sampled[sampledIndex] = to - 1;
+        return sampled;
+    }
+}
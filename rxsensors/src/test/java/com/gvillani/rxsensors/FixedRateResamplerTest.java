@@ -0,0 +1,194 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FixedRateResamplerTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void linearReproducesALine() {
+        long[] times = {0, 7, 9, 21, 40, 41, 55, 80};
+        List<RxSensorEvent> events = new ArrayList<>();
+        for (long time : times) {
+            events.add(event(time * MS, line(time), -2F * line(time)));
+        }
+        FixedRateResampler resampler = new FixedRateResampler.Builder(5, TimeUnit.MILLISECONDS)
+                .setBatchSize(4)
+                .build();
+
+        List<ResampledBatch> batches = resample(resampler, events);
+
+        // 17 samples from 0 to 80 ms, in batches of 4 and a last one of 1
+        assertEquals(5, batches.size());
+        assertEquals(1, batches.get(4).size);
+        int index = 0;
+        for (ResampledBatch batch : batches) {
+            assertEquals(2, batch.dimension);
+            for (int i = 0; i < batch.size; i++, index++) {
+                long time = index * 5;
+                assertEquals(time * MS, batch.timestampAt(i));
+                assertEquals(line(time), batch.valueAt(i, 0), 1e-4F);
+                assertEquals(-2F * line(time), batch.valueAt(i, 1), 1e-4F);
+            }
+        }
+        assertEquals(17, index);
+    }
+
+    @Test
+    public void cubicReproducesAParabolaOnRegularInput() {
+        List<RxSensorEvent> events = new ArrayList<>();
+        for (long time = 100; time <= 200; time += 10) {
+            events.add(event(time * MS, parabola(time)));
+        }
+        FixedRateResampler resampler = new FixedRateResampler.Builder(3, TimeUnit.MILLISECONDS)
+                .setInterpolation(FixedRateResampler.Interpolation.CUBIC)
+                .build();
+
+        float[] values = flatten(resample(resampler, events), 0);
+
+        // from 100 to 199 ms, the last sample at 200 is not on the grid
+        assertEquals(34, values.length);
+        for (int i = 0; i < values.length; i++) {
+            long time = 100 + i * 3;
+            if (time >= 110 && time <= 190) {
+                // the tangents are exact, the first and the last segment use one-sided ones
+                assertEquals("time " + time, parabola(time), values[i], 1e-3F);
+            }
+            if (time % 10 == 0) {
+                assertEquals("time " + time, parabola(time), values[i], 0F);
+            }
+        }
+    }
+
+    @Test
+    public void holdRepeatsTheLastValueBeforeTheGap() {
+        float[] values = flatten(resample(gapResampler(FixedRateResampler.GapPolicy.HOLD), gapEvents()), 0);
+
+        float[] expected = {0F, 1F, 2F, 2F, 2F, 2F, 2F, 2F, 2F, 2F, 10F, 11F};
+        assertEquals(expected.length, values.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], values[i], 0F);
+        }
+    }
+
+    @Test
+    public void interpolateFillsTheGap() {
+        float[] values = flatten(resample(gapResampler(FixedRateResampler.GapPolicy.INTERPOLATE), gapEvents()), 0);
+
+        float[] expected = {0F, 1F, 2F, 3F, 4F, 5F, 6F, 7F, 8F, 9F, 10F, 11F};
+        assertEquals(expected.length, values.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], values[i], 1e-5F);
+        }
+    }
+
+    @Test
+    public void markFillsTheGapWithNaN() {
+        List<ResampledBatch> batches = resample(gapResampler(FixedRateResampler.GapPolicy.MARK), gapEvents());
+
+        assertEquals(1, batches.size());
+        ResampledBatch batch = batches.get(0);
+        assertEquals(12, batch.size);
+        for (int i = 0; i < batch.size; i++) {
+            boolean gap = i >= 3 && i <= 9;
+            assertEquals("sample " + i, gap, batch.isGap(i));
+            assertEquals("sample " + i, gap, Float.isNaN(batch.valueAt(i, 1)));
+            if (!gap) {
+                assertEquals("sample " + i, i, batch.valueAt(i, 0), 0F);
+            }
+        }
+    }
+
+    @Test
+    public void shortAndOutOfOrderEventsAreDiscarded() {
+        List<RxSensorEvent> events = new ArrayList<>();
+        events.add(event(0, 0F, 0F));
+        events.add(event(10 * MS, 50F));
+        events.add(event(0, 50F, 50F));
+        events.add(event(20 * MS, 2F, 20F));
+        FixedRateResampler resampler = new FixedRateResampler.Builder(5, TimeUnit.MILLISECONDS).build();
+
+        List<ResampledBatch> batches = resample(resampler, events);
+
+        float[] first = flatten(batches, 0);
+        float[] second = flatten(batches, 1);
+        float[] expectedFirst = {0F, 0.5F, 1F, 1.5F, 2F};
+        assertEquals(expectedFirst.length, first.length);
+        for (int i = 0; i < expectedFirst.length; i++) {
+            assertEquals("sample " + i, expectedFirst[i], first[i], 1e-5F);
+            assertEquals("sample " + i, expectedFirst[i] * 10F, second[i], 1e-4F);
+        }
+        assertFalse(batches.get(0).isGap(0));
+    }
+
+    /**
+     * Samples every 10 ms, value = time / 10, with a gap between 20 and 100 ms.
+     */
+    private static List<RxSensorEvent> gapEvents() {
+        List<RxSensorEvent> events = new ArrayList<>();
+        for (long time : new long[]{0, 10, 20, 100, 110}) {
+            events.add(event(time * MS, time / 10F, -time / 10F));
+        }
+        return events;
+    }
+
+    private static FixedRateResampler gapResampler(FixedRateResampler.GapPolicy gapPolicy) {
+        return new FixedRateResampler.Builder(10, TimeUnit.MILLISECONDS)
+                .setGapPolicy(gapPolicy, 30, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static List<ResampledBatch> resample(FixedRateResampler resampler, List<RxSensorEvent> events) {
+        TestSubscriber<ResampledBatch> subscriber = Flowable.fromIterable(events).compose(resampler).test();
+        subscriber.assertComplete();
+        subscriber.assertNoErrors();
+        return subscriber.values();
+    }
+
+    /**
+     * @return the values of the axis of all the batches, checking that the batches are
+     * contiguous.
+     */
+    private static float[] flatten(List<ResampledBatch> batches, int axis) {
+        int size = 0;
+        ResampledBatch previous = null;
+        for (ResampledBatch batch : batches) {
+            if (previous != null) {
+                assertEquals(previous.timestampAt(previous.size), batch.firstTimestamp);
+            }
+            size += batch.size;
+            previous = batch;
+        }
+        float[] values = new float[size];
+        int index = 0;
+        for (ResampledBatch batch : batches) {
+            for (int i = 0; i < batch.size; i++) {
+                values[index++] = batch.valueAt(i, axis);
+            }
+        }
+        return values;
+    }
+
+    private static float line(long timeMs) {
+        return 3F + 0.25F * timeMs;
+    }
+
+    private static float parabola(long timeMs) {
+        return 0.01F * (timeMs - 150) * (timeMs - 150) - 4F;
+    }
+
+    private static RxSensorEvent event(long timestamp, float... values) {
+        return new RxSensorEvent(values, null, 3, timestamp);
+    }
+}
@@ -0,0 +1,144 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The frames come from a timer of 16 ms on a TestScheduler, the samples from a processor.
+ */
+public class FrameConflatorTest {
+
+    private TestScheduler scheduler;
+
+    private PublishProcessor<RxSensorEvent> samples;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        samples = PublishProcessor.create();
+    }
+
+    @Test
+    public void latestEmitsTheLastSampleOfEveryFrame() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.LATEST);
+        samples.onNext(sample(1F, 2F, 1));
+        samples.onNext(sample(3F, 4F, 2));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        samples.onNext(sample(5F, 6F, 3));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+
+        subscriber.assertValueCount(2);
+        assertEvent(subscriber.values().get(0), 2, 3F, 4F);
+        assertEvent(subscriber.values().get(1), 3, 5F, 6F);
+    }
+
+    @Test
+    public void meanEmitsTheMeanOfEveryFrame() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.MEAN);
+        samples.onNext(sample(1F, -2F, 1));
+        samples.onNext(sample(2F, -4F, 2));
+        samples.onNext(sample(6F, 0F, 3));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        // the sum starts over on the next frame
+        samples.onNext(sample(10F, 10F, 4));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+
+        subscriber.assertValueCount(2);
+        assertEvent(subscriber.values().get(0), 3, 3F, -2F);
+        assertEvent(subscriber.values().get(1), 4, 10F, 10F);
+    }
+
+    @Test
+    public void envelopeEmitsTheMinimumsThenTheMaximums() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.ENVELOPE);
+        samples.onNext(sample(1F, 5F, 1));
+        samples.onNext(sample(-3F, 7F, 2));
+        samples.onNext(sample(2F, 6F, 3));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        samples.onNext(sample(4F, 4F, 4));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+
+        subscriber.assertValueCount(2);
+        assertEvent(subscriber.values().get(0), 3, -3F, 5F, 2F, 7F);
+        assertEvent(subscriber.values().get(1), 4, 4F, 4F, 4F, 4F);
+    }
+
+    @Test
+    public void framesWithoutSamplesEmitNothing() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.MEAN);
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        subscriber.assertNoValues();
+
+        samples.onNext(sample(1F, 1F, 1));
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void completionEmitsTheSamplesAfterTheLastFrame() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.MEAN);
+        samples.onNext(sample(1F, 1F, 1));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        samples.onNext(sample(2F, 4F, 2));
+        samples.onNext(sample(4F, 8F, 3));
+        samples.onComplete();
+
+        subscriber.assertComplete();
+        subscriber.assertValueCount(2);
+        assertEvent(subscriber.values().get(1), 3, 3F, 6F);
+    }
+
+    @Test
+    public void completionAfterAFrameEmitsNothingMore() {
+        TestSubscriber<RxSensorEvent> subscriber = conflate(FrameConflator.Mode.LATEST);
+        samples.onNext(sample(1F, 1F, 1));
+        scheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        samples.onComplete();
+
+        subscriber.assertComplete();
+        subscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void takeReducesTheSamplesOnlyOnce() {
+        FrameConflator.Accumulator accumulator = new FrameConflator.Builder(FrameConflator.Mode.MEAN)
+                .setFrames(FrameConflator.timerFrames(16, TimeUnit.MILLISECONDS, scheduler))
+                .build()
+                .new Accumulator();
+        assertNull(accumulator.take());
+
+        accumulator.add(sample(1F, 2F, 1));
+        RxSensorEvent event = accumulator.take();
+        assertNotNull(event);
+        assertEvent(event, 1, 1F, 2F);
+        // e.g. the completion right after a frame: no duplicate, no mean of zero samples
+        assertNull(accumulator.take());
+    }
+
+    private TestSubscriber<RxSensorEvent> conflate(FrameConflator.Mode mode) {
+        return samples.compose(new FrameConflator.Builder(mode)
+                .setFrames(FrameConflator.timerFrames(16, TimeUnit.MILLISECONDS, scheduler))
+                .build())
+                .test();
+    }
+
+    private static void assertEvent(RxSensorEvent event, long timestamp, float... values) {
+        assertEquals(timestamp, event.timestamp);
+        assertArrayEquals(values, event.values, 1e-6F);
+    }
+
+    private static RxSensorEvent sample(float x, float y, long timestamp) {
+        return new RxSensorEvent(new float[]{x, y}, null, 3, timestamp);
+    }
+}
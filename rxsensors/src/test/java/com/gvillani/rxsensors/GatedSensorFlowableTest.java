@@ -0,0 +1,170 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The sensor is replaced by a processor per subscription, so that the gating and the metrics run
+ * on the host.
+ */
+public class GatedSensorFlowableTest {
+
+    private TestScheduler scheduler;
+
+    private PublishProcessor<Object> triggers;
+
+    private GatedSensorFlowable gated;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        triggers = PublishProcessor.create();
+        gated = new GatedSensorFlowable.Builder(null, null, 200000, 20000)
+                .setHighRateWindow(5, TimeUnit.SECONDS)
+                .setScheduler(scheduler)
+                .triggerOn(triggers)
+                .triggerOnThreshold(new Predicate<RxSensorEvent>() {
+                    @Override
+                    public boolean test(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        return rxSensorEvent.values[0] > 10;
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void highRateIntervalIsClosedWhenTheSubscriptionEnds() {
+        TestSubscriber<RxSensorEvent> subscriber = events(PublishProcessor.<RxSensorEvent>create()).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        triggers.onNext(1);
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        subscriber.dispose();
+
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        GatedSensorFlowable.DutyCycleMetrics metrics = gated.getMetrics();
+        assertEquals(1, metrics.triggers);
+        assertEquals(2000, metrics.highRateTimeMs);
+        assertEquals(3000, metrics.totalTimeMs);
+
+        // the idle time between two subscriptions is not counted
+        events(PublishProcessor.<RxSensorEvent>create()).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        metrics = gated.getMetrics();
+        assertEquals(2000, metrics.highRateTimeMs);
+        assertEquals(4000, metrics.totalTimeMs);
+    }
+
+    @Test
+    public void concurrentSubscriptionsHaveTheirOwnGate() {
+        PublishProcessor<RxSensorEvent> first = PublishProcessor.create();
+        PublishProcessor<RxSensorEvent> second = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> firstSubscriber = events(first).test();
+        TestSubscriber<RxSensorEvent> secondSubscriber = events(second).test();
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        first.onNext(sample(20F, 1));
+        first.onNext(sample(1F, 2));
+        second.onNext(sample(1F, 1));
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        firstSubscriber.dispose();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        GatedSensorFlowable.DutyCycleMetrics metrics = gated.getMetrics();
+        assertEquals(1, metrics.triggers);
+        assertEquals(2000, metrics.highRateTimeMs);
+        assertEquals(3000 + 4000, metrics.totalTimeMs);
+        assertEquals(2, metrics.lowRateSamples);
+        assertEquals(1, metrics.highRateSamples);
+        firstSubscriber.assertValueCount(2);
+        secondSubscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void aSharedTriggerIsCountedOnce() {
+        events(PublishProcessor.<RxSensorEvent>create()).test();
+        events(PublishProcessor.<RxSensorEvent>create()).test();
+        events(PublishProcessor.<RxSensorEvent>create()).test();
+
+        triggers.onNext(1);
+        scheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        GatedSensorFlowable.DutyCycleMetrics metrics = gated.getMetrics();
+        assertEquals(1, metrics.triggers);
+        // but it opens every gate
+        assertEquals(3 * 5000, metrics.highRateTimeMs);
+    }
+
+    @Test
+    public void thresholdIsEvaluatedOnlyAtTheLowRate() {
+        final int[] evaluations = new int[1];
+        gated = new GatedSensorFlowable.Builder(null, null, 200000, 20000)
+                .setHighRateWindow(5, TimeUnit.SECONDS)
+                .setScheduler(scheduler)
+                .triggerOnThreshold(new Predicate<RxSensorEvent>() {
+                    @Override
+                    public boolean test(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        evaluations[0]++;
+                        return rxSensorEvent.values[0] > 10;
+                    }
+                })
+                .build();
+        PublishProcessor<RxSensorEvent> samples = PublishProcessor.create();
+        events(samples).test();
+
+        samples.onNext(sample(1F, 1));
+        samples.onNext(sample(20F, 2));
+        // at the high rate, even the samples above the threshold don't extend the window
+        for (int i = 0; i < 100; i++) {
+            samples.onNext(sample(20F, 3 + i));
+        }
+        assertEquals(2, evaluations[0]);
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        samples.onNext(sample(1F, 200));
+        assertEquals(3, evaluations[0]);
+        GatedSensorFlowable.DutyCycleMetrics metrics = gated.getMetrics();
+        assertEquals(1, metrics.triggers);
+        assertEquals(5000, metrics.highRateTimeMs);
+        assertEquals(3, metrics.lowRateSamples);
+        assertEquals(100, metrics.highRateSamples);
+    }
+
+    @Test
+    public void nonIncreasingTimestampsAreDropped() {
+        PublishProcessor<RxSensorEvent> samples = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> subscriber = events(samples).test();
+        samples.onNext(sample(1F, 2));
+        samples.onNext(sample(1F, 2));
+        samples.onNext(sample(1F, 1));
+        samples.onNext(sample(1F, 3));
+        subscriber.assertValueCount(2);
+    }
+
+    /**
+     * @return the gated events, with samples emitted by the processor instead of the sensor.
+     */
+    private Flowable<RxSensorEvent> events(final PublishProcessor<RxSensorEvent> samples) {
+        return gated.gate(new Function<Flowable<Boolean>, Publisher<RxSensorEvent>>() {
+            @Override
+            public Publisher<RxSensorEvent> apply(@NonNull Flowable<Boolean> active) throws Exception {
+                return Flowable.merge(active.ignoreElements().<RxSensorEvent>toFlowable(), samples);
+            }
+        });
+    }
+
+    private static RxSensorEvent sample(float value, long timestamp) {
+        return new RxSensorEvent(new float[]{value, 0F, 0F}, null, 3, timestamp);
+    }
+}
@@ -0,0 +1,169 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The sample i has the values {i, -i} and the timestamp 1000 * i, so the content expected for
+ * every window is known.
+ */
+public class InputWindowTransformerTest {
+
+    @Test
+    public void windowsAreContiguousAcrossTheWrapAround() throws Exception {
+        // capacity 4 + 2 * 3 = 10: the windows starting at 9, 12 (i.e. 2) and 15 (5) wrap
+        // around or follow a wrap around
+        final List<Long> starts = new ArrayList<>();
+        samples(40).compose(new InputWindowTransformer.Builder(4, 3, 2).build())
+                .subscribe(new Consumer<InputWindow>() {
+                    @Override
+                    public void accept(@NonNull InputWindow window) throws Exception {
+                        int first = (int) (window.startTimestamp / 1000);
+                        assertArrayEquals(expected(first, 4), content(window), 0F);
+                        assertEquals(1000L * (first + 3), window.endTimestamp);
+                        starts.add(window.startTimestamp / 1000);
+                    }
+                });
+
+        assertEquals(13, starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            assertEquals(3L * i, (long) starts.get(i));
+        }
+    }
+
+    @Test
+    public void normalizesEveryChannel() throws Exception {
+        List<InputWindow> windows = samples(3).compose(new InputWindowTransformer.Builder(3, 3, 2)
+                .setNormalization(new float[]{1F, -1F}, new float[]{2F, 0.5F})
+                .build())
+                .toList()
+                .blockingGet();
+
+        assertEquals(1, windows.size());
+        assertArrayEquals(new float[]{-0.5F, 2F, 0F, 0F, 0.5F, -2F}, content(windows.get(0)), 1e-6F);
+    }
+
+    @Test
+    public void missingChannelsAreZero() throws Exception {
+        Flowable<RxSensorEvent> events = Flowable.just(
+                new RxSensorEvent(new float[]{1F, 2F}, null, 3, 0),
+                new RxSensorEvent(new float[]{3F}, null, 3, 1000),
+                new RxSensorEvent(new float[]{4F, 5F}, null, 3, 2000),
+                new RxSensorEvent(new float[]{6F}, null, 3, 3000));
+        List<InputWindow> windows = events.compose(new InputWindowTransformer.Builder(2, 2, 2)
+                .setWindowsInFlight(1)
+                .build())
+                .toList()
+                .blockingGet();
+
+        assertEquals(2, windows.size());
+        // the second event does not keep the value of the first one
+        assertArrayEquals(new float[]{1F, 2F, 3F, 0F}, content(windows.get(0)), 0F);
+        assertArrayEquals(new float[]{4F, 5F, 6F, 0F}, content(windows.get(1)), 0F);
+    }
+
+    @Test
+    public void rejectsAStdThatIsNotPositive() {
+        InputWindowTransformer.Builder builder = new InputWindowTransformer.Builder(4, 2, 2);
+        float[] mean = {0F, 0F};
+        for (float std : new float[]{0F, -1F, Float.NaN, Float.POSITIVE_INFINITY}) {
+            try {
+                builder.setNormalization(mean, new float[]{1F, std});
+                fail("std " + std + " accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void aPrefetchingConsumerSeesOverwrittenWindows() throws Exception {
+        InputWindowTransformer transformer = new InputWindowTransformer.Builder(4, 2, 2)
+                .setWindowsInFlight(2)
+                .build();
+
+        // consumed as soon as it is emitted, every window is intact
+        final int[] overwritten = new int[1];
+        samples(40).compose(transformer).subscribe(new Consumer<InputWindow>() {
+            @Override
+            public void accept(@NonNull InputWindow window) throws Exception {
+                if (!intact(window)) {
+                    overwritten[0]++;
+                }
+            }
+        });
+        assertEquals(0, overwritten[0]);
+
+        // blockingForEach queues the windows before the consumer runs: only the last
+        // windowsInFlight + 1 windows are still valid when it gets to them
+        samples(40).compose(transformer).blockingForEach(new Consumer<InputWindow>() {
+            @Override
+            public void accept(@NonNull InputWindow window) throws Exception {
+                if (!intact(window)) {
+                    overwritten[0]++;
+                }
+            }
+        });
+        assertEquals(19 - 3, overwritten[0]);
+
+        // the last windowsInFlight windows emitted after a window are guaranteed not to overwrite it
+        List<InputWindow> windows = samples(40).compose(transformer).toList().blockingGet();
+        for (int i = 0; i < windows.size(); i++) {
+            if (i < windows.size() - 3) {
+                assertFalse("window " + i, intact(windows.get(i)));
+            } else {
+                assertTrue("window " + i, intact(windows.get(i)));
+            }
+        }
+    }
+
+    private static Flowable<RxSensorEvent> samples(int count) {
+        return Flowable.range(0, count).map(new Function<Integer, RxSensorEvent>() {
+            @Override
+            public RxSensorEvent apply(@NonNull Integer i) throws Exception {
+                return new RxSensorEvent(new float[]{i, -i}, null, 3, 1000L * i);
+            }
+        });
+    }
+
+    private static boolean intact(InputWindow window) {
+        int first = (int) (window.startTimestamp / 1000);
+        float[] expected = expected(first, (int) ((window.endTimestamp - window.startTimestamp) / 1000) + 1);
+        float[] content = content(window);
+        for (int i = 0; i < expected.length; i++) {
+            if (content[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static float[] expected(int first, int size) {
+        float[] values = new float[size * 2];
+        for (int i = 0; i < size; i++) {
+            values[2 * i] = first + i;
+            values[2 * i + 1] = -(first + i);
+        }
+        return values;
+    }
+
+    private static float[] content(InputWindow window) {
+        FloatBuffer floats = window.asFloatBuffer();
+        float[] values = new float[floats.remaining()];
+        floats.get(values);
+        return values;
+    }
+}
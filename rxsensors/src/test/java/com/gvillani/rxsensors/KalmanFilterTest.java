@@ -0,0 +1,193 @@
+package com.gvillani.rxsensors;
+
+import android.hardware.SensorManager;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KalmanFilterTest {
+
+    private static final long PERIOD_NS = 10000000;
+
+    @Test
+    public void constantPositionReducesTheNoise() {
+        Random random = new Random(1);
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> subscriber = source.compose(new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_POSITION)
+                .setProcessNoise(0.001F)
+                .setMeasurementNoise(1F)
+                .build())
+                .test();
+
+        double rawError = 0;
+        for (int i = 0; i < 2000; i++) {
+            float raw = 5F + (float) random.nextGaussian();
+            rawError += (raw - 5F) * (raw - 5F);
+            source.onNext(new RxSensorEvent(new float[]{raw}, null, 3, i * PERIOD_NS));
+        }
+
+        List<RxSensorEvent> estimates = subscriber.values();
+        double error = 0;
+        for (int i = 1000; i < 2000; i++) {
+            float estimate = estimates.get(i).values[0];
+            error += (estimate - 5F) * (estimate - 5F);
+        }
+        double rawRmse = Math.sqrt(rawError / 2000);
+        double rmse = Math.sqrt(error / 1000);
+        assertTrue("rmse " + rmse + " raw " + rawRmse, rmse < rawRmse / 5);
+    }
+
+    @Test
+    public void constantVelocityFollowsARampWithoutLag() {
+        KalmanFilter.Builder builder = new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_VELOCITY)
+                .setProcessNoise(0.01F)
+                .setMeasurementNoise(0.25F);
+        double velocityError = rampError(builder.build());
+        double positionError = rampError(new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_POSITION)
+                .setProcessNoise(0.01F)
+                .setMeasurementNoise(0.25F)
+                .build());
+
+        // 3 units per second: the constant position model lags behind
+        assertTrue("error " + velocityError, velocityError < 0.1);
+        assertTrue("error " + positionError, positionError > 1);
+    }
+
+    @Test
+    public void filtersEveryAxisWithTheTimeBetweenTheTimestamps() {
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> subscriber = source.compose(new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_VELOCITY)
+                .build())
+                .test();
+
+        // irregular timestamps, a different ramp on every axis, no noise
+        long timestamp = 0;
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            double t = timestamp / 1e9;
+            source.onNext(new RxSensorEvent(new float[]{(float) t, (float) (-2 * t), 7F}, null, 3, timestamp));
+            timestamp += PERIOD_NS / 2 + random.nextInt((int) (2 * PERIOD_NS));
+        }
+
+        RxSensorEvent last = subscriber.values().get(999);
+        double t = last.timestamp / 1e9;
+        assertEquals(t, last.values[0], 0.01);
+        assertEquals(-2 * t, last.values[1], 0.01);
+        assertEquals(7, last.values[2], 1e-4);
+    }
+
+    @Test
+    public void altitudeFollowsAClimb() {
+        double rmse = altitudeRmse(1F);
+        assertTrue("rmse " + rmse, rmse < 0.7);
+    }
+
+    @Test
+    public void altitudeLearnsTheScaleErrorOfTheAccelerometer() {
+        // subtracting the standard gravity would leave a bias of 0.2 m/s^2
+        double rmse = altitudeRmse(1.02F);
+        assertTrue("rmse " + rmse, rmse < 0.7);
+    }
+
+    @Test
+    public void rejectsInvalidNoises() {
+        KalmanFilter.Builder builder = new KalmanFilter.Builder(KalmanFilter.Model.CONSTANT_POSITION);
+        builder.setProcessNoise(0F);
+        for (float noise : new float[]{-1F, Float.NaN, Float.POSITIVE_INFINITY}) {
+            try {
+                builder.setProcessNoise(noise);
+                fail("process noise " + noise + " accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        for (float noise : new float[]{0F, -1F, Float.NaN, Float.POSITIVE_INFINITY}) {
+            try {
+                builder.setMeasurementNoise(noise);
+                fail("measurement noise " + noise + " accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    /**
+     * @return the mean absolute error over the last half of a ramp of 3 units per second.
+     */
+    private static double rampError(KalmanFilter filter) {
+        Random random = new Random(4);
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> subscriber = source.compose(filter).test();
+        for (int i = 0; i < 2000; i++) {
+            float value = (float) (3 * i * PERIOD_NS / 1e9 + 0.5 * random.nextGaussian());
+            source.onNext(new RxSensorEvent(new float[]{value}, null, 3, i * PERIOD_NS));
+        }
+
+        double error = 0;
+        for (int i = 1000; i < 2000; i++) {
+            error += Math.abs(subscriber.values().get(i).values[0] - 3 * i * PERIOD_NS / 1e9);
+        }
+        return error / 1000;
+    }
+
+    /**
+     * Simulates a device at rest that climbs 20 m after 300 s, with the accelerometer at 100 Hz,
+     * scaled by scale, and the barometer at 10 Hz with a noise of 2 m.
+     *
+     * @return the RMSE of the altitude estimated after 290 s.
+     */
+    private static double altitudeRmse(float scale) {
+        Random random = new Random(3);
+        PublishProcessor<RxSensorEvent> pressure = PublishProcessor.create();
+        PublishProcessor<RxSensorEvent> accelerometer = PublishProcessor.create();
+        TestSubscriber<RxSensorEvent> subscriber = KalmanFilter.altitude(pressure, accelerometer, 0.5F, 4F).test();
+
+        double altitude = 0;
+        double speed = 0;
+        double error = 0;
+        int count = 0;
+        for (int i = 0; i < 60000; i++) {
+            double t = i * PERIOD_NS / 1e9;
+            double acceleration = t > 300 && t < 302 ? 1 : t > 310 && t < 312 ? -1 : 0;
+            speed += acceleration * PERIOD_NS / 1e9;
+            altitude += speed * PERIOD_NS / 1e9;
+            long timestamp = i * PERIOD_NS;
+
+            float gravity = (float) ((SensorManager.STANDARD_GRAVITY + acceleration) * scale + 0.05 * random.nextGaussian());
+            accelerometer.onNext(new RxSensorEvent(new float[]{
+                    (float) (0.05 * random.nextGaussian()), (float) (0.05 * random.nextGaussian()), gravity
+            }, null, 3, timestamp));
+            if (i % 10 == 0) {
+                pressure.onNext(new RxSensorEvent(new float[]{toPressure(altitude + 2 * random.nextGaussian())},
+                        null, 3, timestamp));
+                if (t > 290) {
+                    List<RxSensorEvent> estimates = subscriber.values();
+                    float estimate = estimates.get(estimates.size() - 1).values[0];
+                    error += (estimate - altitude) * (estimate - altitude);
+                    count++;
+                }
+            }
+        }
+
+        // at rest again, at the top of the climb
+        List<RxSensorEvent> estimates = subscriber.values();
+        RxSensorEvent last = estimates.get(estimates.size() - 1);
+        assertEquals(altitude, last.values[0], 1);
+        assertEquals(0, last.values[1], 0.2);
+        return Math.sqrt(error / count);
+    }
+
+    /**
+     * Inverse of {@link KalmanFilter#pressureToAltitude(float)}.
+     */
+    private static float toPressure(double altitude) {
+        return (float) (SensorManager.PRESSURE_STANDARD_ATMOSPHERE * Math.pow(1 - altitude / 44330, 5.255));
+    }
+}
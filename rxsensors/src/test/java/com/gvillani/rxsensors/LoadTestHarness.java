@@ -0,0 +1,259 @@
+package com.gvillani.rxsensors;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
+import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
+
+/**
+ * Headless load test of the filter chain: drives {@link RxSensorFilter},
+ * {@link RxSensorTransformer} and the low pass filter of {@link OrientationEventFlowable} from
+ * many synthetic sources at a fixed rate, and reports the sustained throughput, the end-to-end
+ * latency percentiles, the garbage collections and the dropped events.
+ * <p>
+ * It runs on a plain JVM, e.g. from the IDE or with the unit test classpath:
+ * {@code java com.gvillani.rxsensors.LoadTestHarness [streams] [rateHz] [seconds]}. The
+ * defaults are 20 streams at 1000 Hz for 10 seconds. The rotation matrix math of the orientation
+ * belongs to the Android framework, so only the part implemented by the library is exercised.
+ */
+public final class LoadTestHarness {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final int streams;
+
+    private final int rateHz;
+
+    private final int seconds;
+
+    LoadTestHarness(int streams, int rateHz, int seconds) {
+        this.streams = streams;
+        this.rateHz = rateHz;
+        this.seconds = seconds;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int rateHz = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.println(new LoadTestHarness(streams, rateHz, seconds).run());
+    }
+
+    Report run() throws InterruptedException {
+        final AtomicLong generated = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        List<Recorder> recorders = new ArrayList<>();
+
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMs();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < streams; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            pipeline(syntheticSource(i, generated), dropped).subscribe(recorder);
+        }
+
+        Thread.sleep(seconds * 1000L);
+        for (Recorder recorder : recorders) {
+            recorder.cancel();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (Recorder recorder : recorders) {
+            synchronized (recorder) {
+                latencies.add(recorder.histogram);
+            }
+        }
+        return new Report(streams, rateHz, elapsed, generated.get(), dropped.get(), latencies,
+                gcCount() - gcCountBefore, gcTimeMs() - gcTimeBefore);
+    }
+
+    /**
+     * The chain under test, the same suggested in the README for a real sensor.
+     */
+    private static Flowable<RxSensorEvent> pipeline(Flowable<RxSensorEvent> source, final AtomicLong dropped) {
+        final float[] orientationState = new float[3];
+
+        return source
+                .onBackpressureDrop(new Consumer<RxSensorEvent>() {
+                    @Override
+                    public void accept(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        dropped.incrementAndGet();
+                    }
+                })
+                .observeOn(Schedulers.computation(), false, BUFFER_SIZE)
+                .filter(RxSensorFilter.minAccuracy(SENSOR_STATUS_ACCURACY_MEDIUM))
+                .distinctUntilChanged(RxSensorFilter.uniqueEventValues())
+                .compose(RxSensorTransformer.lowPassFilter(0.2F))
+                .map(new Function<RxSensorEvent, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull RxSensorEvent rxSensorEvent) throws Exception {
+                        OrientationEventFlowable.lowPass(rxSensorEvent.values, orientationState, 0.25F);
+                        return rxSensorEvent;
+                    }
+                });
+    }
+
+    /**
+     * A source that emits 3-axis events at the requested rate from its own thread. The timestamp
+     * of every event is the time it is emitted, so the latency is measured from there.
+     */
+    private Flowable<RxSensorEvent> syntheticSource(final int index, final AtomicLong generated) {
+        return Flowable.create(new FlowableOnSubscribe<RxSensorEvent>() {
+            @Override
+            public void subscribe(@NonNull final FlowableEmitter<RxSensorEvent> e) throws Exception {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        long periodNs = 1000000000L / rateHz;
+                        long emitted = 0;
+                        float[] values = new float[3];
+
+                        while (!e.isCancelled()) {
+                            long due = (System.nanoTime() - start) / periodNs;
+                            long batchStart = emitted;
+                            for (; emitted < due && !e.isCancelled(); emitted++) {
+                                double phase = emitted * 0.01 + index;
+                                values[0] = (float) Math.sin(phase);
+                                values[1] = (float) Math.cos(phase);
+                                values[2] = 9.81F + (float) Math.sin(phase * 3);
+                                e.onNext(new RxSensorEvent(values, null, SENSOR_STATUS_ACCURACY_HIGH, System.nanoTime()));
+                            }
+                            generated.addAndGet(emitted - batchStart);
+                            LockSupport.parkNanos(Math.min(periodNs, 1000000L));
+                        }
+                    }
+                }, "load-source-" + index);
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        thread.interrupt();
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }, BackpressureStrategy.MISSING);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMs() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    static final class Recorder implements Subscriber<RxSensorEvent> {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        private volatile Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(RxSensorEvent rxSensorEvent) {
+            long latency = System.nanoTime() - rxSensorEvent.timestamp;
+            synchronized (this) {
+                histogram.record(latency);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            t.printStackTrace();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void cancel() {
+            subscription.cancel();
+        }
+    }
+
+    static final class Report {
+        final int streams;
+
+        final int rateHz;
+
+        final long elapsedNs;
+
+        final long generated;
+
+        final long dropped;
+
+        final LatencyHistogram latencies;
+
+        final long gcCount;
+
+        final long gcTimeMs;
+
+        Report(int streams, int rateHz, long elapsedNs, long generated, long dropped,
+               LatencyHistogram latencies, long gcCount, long gcTimeMs) {
+            this.streams = streams;
+            this.rateHz = rateHz;
+            this.elapsedNs = elapsedNs;
+            this.generated = generated;
+            this.dropped = dropped;
+            this.latencies = latencies;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+        }
+
+        double getThroughput() {
+            return latencies.getCount() * 1e9 / elapsedNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "streams=%d rate=%dHz target=%d ev/s%n"
+                            + "throughput=%.0f ev/s generated=%d delivered=%d dropped=%d%n"
+                            + "latency p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n"
+                            + "gc count=%d time=%dms",
+                    streams, rateHz, (long) streams * rateHz,
+                    getThroughput(), generated, latencies.getCount(), dropped,
+                    latencies.getPercentile(50) / 1e3, latencies.getPercentile(90) / 1e3,
+                    latencies.getPercentile(99) / 1e3, latencies.getPercentile(99.9) / 1e3,
+                    latencies.getMax() / 1e3,
+                    gcCount, gcTimeMs);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds the readings of a known distortion, raw = D h + offset with h on a sphere of radius F and
+ * D symmetric: the calibration must find the offset, a gain cbrt(det D) D^-1 and a field strength
+ * F cbrt(det D), the radius of the sphere with the volume of the ellipsoid.
+ */
+public class MagneticCalibratorTest {
+
+    private static final float FIELD = 45F;
+
+    private static final float[] OFFSET = {12F, -30F, 7.5F};
+
+    private static final double[] DISTORTION = {
+            1.2, 0.1, 0.05,
+            0.1, 0.9, -0.08,
+            0.05, -0.08, 1.05
+    };
+
+    @Test
+    public void findsTheKnownEllipsoid() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().build();
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            calibrator.add(sample(random, 0));
+        }
+
+        MagneticCalibrator.Calibration calibration = calibrator.getCalibration();
+        assertTrue(calibration.valid);
+        assertEquals(2000, calibration.samples);
+        assertArrayEquals(OFFSET, calibration.offset, 0.01F);
+        assertArrayEquals(expectedGain(), calibration.gain, 1e-4F);
+        assertEquals(expectedFieldStrength(), calibration.fieldStrength, 0.01F);
+        assertEquals(0F, calibration.residual, 1e-4F);
+
+        // the corrected samples lie on the sphere
+        for (int i = 0; i < 100; i++) {
+            float[] values = sample(random, 0);
+            calibrator.correct(values);
+            assertEquals(calibration.fieldStrength, magnitude(values), 0.01F);
+        }
+    }
+
+    @Test
+    public void findsTheKnownEllipsoidFromNoisySamples() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().build();
+        Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            calibrator.add(sample(random, 0.5F));
+        }
+
+        MagneticCalibrator.Calibration calibration = calibrator.getCalibration();
+        assertTrue(calibration.valid);
+        assertArrayEquals(OFFSET, calibration.offset, 0.5F);
+        assertArrayEquals(expectedGain(), calibration.gain, 0.02F);
+        assertEquals(expectedFieldStrength(), calibration.fieldStrength, 0.5F);
+        // noise of 0.5 on a field of about 45
+        assertTrue("residual " + calibration.residual, calibration.residual < 0.03F);
+    }
+
+    @Test
+    public void samplesOnAPlaneAreNotEnough() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().build();
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            float[] values = {(float) (FIELD * Math.cos(angle)), (float) (FIELD * Math.sin(angle)), 0F};
+            calibrator.add(values);
+        }
+        assertFalse(calibrator.getCalibration().valid);
+
+        float[] values = {1F, 2F, 3F};
+        calibrator.correct(values);
+        assertArrayEquals(new float[]{1F, 2F, 3F}, values, 0F);
+    }
+
+    @Test
+    public void survivesALongStillPeriodWithForgetting() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().setForgettingFactor(0.999F).build();
+        Random random = new Random(9);
+        for (int i = 0; i < 5000; i++) {
+            calibrator.add(sample(random, 0.3F));
+        }
+        assertArrayEquals(OFFSET, calibrator.getCalibration().offset, 0.1F);
+
+        // hours of a device that does not move, e.g. mounted in a parked vehicle
+        double[] still = {FIELD * 0.6, FIELD * 0.8, 0};
+        for (int i = 0; i < 1000000; i++) {
+            calibrator.add(sample(random, still, OFFSET, 0.3F));
+        }
+        MagneticCalibrator.Calibration calibration = calibrator.getCalibration();
+        assertTrue(calibration.valid);
+        assertArrayEquals(OFFSET, calibration.offset, 0.2F);
+        assertArrayEquals(expectedGain(), calibration.gain, 0.01F);
+        assertEquals(expectedFieldStrength(), calibration.fieldStrength, 0.2F);
+
+        // and it keeps following the rotations afterwards
+        for (int i = 0; i < 5000; i++) {
+            calibrator.add(sample(random, 0.3F));
+        }
+        calibration = calibrator.getCalibration();
+        assertTrue(calibration.samples > 5000);
+        assertArrayEquals(OFFSET, calibration.offset, 0.1F);
+        assertEquals(expectedFieldStrength(), calibration.fieldStrength, 0.1F);
+    }
+
+    @Test
+    public void followsAChangeOfTheOffsetWithForgetting() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().setForgettingFactor(0.999F).build();
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            calibrator.add(sample(random, 0.3F));
+        }
+
+        float[] moved = {OFFSET[0] + 10F, OFFSET[1], OFFSET[2] - 5F};
+        for (int i = 0; i < 10000; i++) {
+            calibrator.add(randomSample(random, moved));
+        }
+        assertArrayEquals(moved, calibrator.getCalibration().offset, 0.1F);
+    }
+
+    @Test
+    public void discardsTheCalibrationWhenTheFieldNoLongerFits() {
+        MagneticCalibrator calibrator = new MagneticCalibrator.Builder().build();
+        Random random = new Random(17);
+        for (int i = 0; i < 2000; i++) {
+            calibrator.add(sample(random, 0F));
+        }
+        assertTrue(calibrator.getCalibration().valid);
+
+        // a magnet attached to the device: without forgetting the old fit can't follow
+        float[] moved = {OFFSET[0] + 40F, OFFSET[1] - 40F, OFFSET[2]};
+        int i = 0;
+        while (calibrator.getCalibration().valid) {
+            calibrator.add(randomSample(random, moved));
+            assertTrue("still valid after " + i + " samples", ++i < 1000);
+        }
+        float[] values = {1F, 2F, 3F};
+        calibrator.correct(values);
+        assertArrayEquals(new float[]{1F, 2F, 3F}, values, 0F);
+
+        // the fit starts over on the new samples
+        for (i = 0; i < 2000; i++) {
+            calibrator.add(randomSample(random, moved));
+        }
+        assertTrue(calibrator.getCalibration().valid);
+        assertArrayEquals(moved, calibrator.getCalibration().offset, 0.01F);
+    }
+
+    /**
+     * @return the reading of a field in a random direction, without noise, with another offset.
+     */
+    private static float[] randomSample(Random random, float[] offset) {
+        float[] values = sample(random, 0F);
+        for (int i = 0; i < 3; i++) {
+            values[i] += offset[i] - OFFSET[i];
+        }
+        return values;
+    }
+
+    /**
+     * @return the reading of a field in a random direction, with Gaussian noise of the provided
+     * standard deviation.
+     */
+    private static float[] sample(Random random, float noise) {
+        double x = random.nextGaussian();
+        double y = random.nextGaussian();
+        double z = random.nextGaussian();
+        double norm = Math.sqrt(x * x + y * y + z * z) / FIELD;
+        return sample(random, new double[]{x / norm, y / norm, z / norm}, OFFSET, noise);
+    }
+
+    /**
+     * @return the reading of the field h with the provided offset.
+     */
+    private static float[] sample(Random random, double[] h, float[] offset, float noise) {
+        float[] values = new float[3];
+        for (int i = 0; i < 3; i++) {
+            double sum = offset[i] + noise * random.nextGaussian();
+            for (int j = 0; j < 3; j++) {
+                sum += DISTORTION[i * 3 + j] * h[j];
+            }
+            values[i] = (float) sum;
+        }
+        return values;
+    }
+
+    private static double determinant() {
+        double[] d = DISTORTION;
+        return d[0] * (d[4] * d[8] - d[5] * d[7])
+                - d[1] * (d[3] * d[8] - d[5] * d[6])
+                + d[2] * (d[3] * d[7] - d[4] * d[6]);
+    }
+
+    private static float expectedFieldStrength() {
+        return (float) (FIELD * Math.cbrt(determinant()));
+    }
+
+    private static float[] expectedGain() {
+        double[] d = DISTORTION;
+        double[] adjugate = {
+                d[4] * d[8] - d[5] * d[7], d[2] * d[7] - d[1] * d[8], d[1] * d[5] - d[2] * d[4],
+                d[5] * d[6] - d[3] * d[8], d[0] * d[8] - d[2] * d[6], d[2] * d[3] - d[0] * d[5],
+                d[3] * d[7] - d[4] * d[6], d[1] * d[6] - d[0] * d[7], d[0] * d[4] - d[1] * d[3]
+        };
+        double determinant = determinant();
+        double scale = Math.cbrt(determinant) / determinant;
+        float[] gain = new float[9];
+        for (int i = 0; i < 9; i++) {
+            gain[i] = (float) (scale * adjugate[i]);
+        }
+        return gain;
+    }
+
+    private static float magnitude(float[] values) {
+        return (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+    }
+}
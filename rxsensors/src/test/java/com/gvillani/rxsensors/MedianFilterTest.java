@@ -0,0 +1,124 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MedianFilterTest {
+
+    @Test
+    public void runningMedianMatchesSortedWindow() {
+        Random random = new Random(7);
+        int windowSize = 9;
+        float[][] input = new float[2000][];
+        for (int i = 0; i < input.length; i++) {
+            // the second axis has many duplicates
+            input[i] = new float[]{(float) random.nextGaussian(), random.nextInt(4)};
+        }
+
+        List<RxSensorEvent> output = filter(new MedianFilter.Builder(windowSize).build(), input);
+
+        for (int axis = 0; axis < 2; axis++) {
+            ArrayDeque<Float> window = new ArrayDeque<>();
+            for (int i = 0; i < input.length; i++) {
+                add(window, input[i][axis], windowSize);
+                assertEquals("sample " + i, median(window), output.get(i).values[axis], 0F);
+            }
+        }
+    }
+
+    @Test
+    public void nanPassesThroughAndIsNotAddedToTheWindow() {
+        float nan = Float.NaN;
+        float[][] input = {{1F}, {nan}, {3F}, {nan}, {nan}, {5F}, {7F}, {nan}, {9F}};
+
+        List<RxSensorEvent> output = filter(new MedianFilter.Builder(3).build(), input);
+
+        // windows {1}, {1, 3}, {1, 3, 5}, {3, 5, 7}, {5, 7, 9}
+        float[] expected = {1F, nan, 2F, nan, nan, 3F, 5F, nan, 7F};
+        for (int i = 0; i < expected.length; i++) {
+            if (Float.isNaN(expected[i])) {
+                assertTrue("sample " + i, Float.isNaN(output.get(i).values[0]));
+            } else {
+                assertEquals("sample " + i, expected[i], output.get(i).values[0], 0F);
+            }
+        }
+    }
+
+    @Test
+    public void hampelFilterReplacesOnlyTheOutliers() {
+        Random random = new Random(11);
+        float[][] input = new float[500][];
+        for (int i = 0; i < input.length; i++) {
+            float value = (float) random.nextGaussian();
+            input[i] = new float[]{i % 50 == 25 ? value + 100F : value};
+        }
+        float[][] original = new float[input.length][];
+        for (int i = 0; i < input.length; i++) {
+            original[i] = input[i].clone();
+        }
+
+        List<RxSensorEvent> output = filter(new MedianFilter.Builder(21).setHampelThreshold(3F).build(), input);
+
+        ArrayDeque<Float> window = new ArrayDeque<>();
+        int replaced = 0;
+        for (int i = 0; i < input.length; i++) {
+            add(window, original[i][0], 21);
+            float median = median(window);
+            ArrayDeque<Float> deviations = new ArrayDeque<>();
+            for (Float value : window) {
+                deviations.add(Math.abs(value - median));
+            }
+            float sigma = 1.4826F * median(deviations);
+            boolean outlier = Math.abs(original[i][0] - median) > 3F * sigma;
+            assertEquals("sample " + i, outlier ? median : original[i][0], output.get(i).values[0], 0F);
+            if (outlier) {
+                replaced++;
+            }
+            if (i % 50 == 25) {
+                assertTrue("spike " + i, outlier);
+            }
+        }
+        // the spikes and a few Gaussian tails, the rest is left untouched
+        assertTrue("replaced " + replaced, replaced >= input.length / 50 && replaced < input.length / 10);
+    }
+
+    private static List<RxSensorEvent> filter(MedianFilter filter, float[][] input) {
+        List<RxSensorEvent> events = new ArrayList<>();
+        for (int i = 0; i < input.length; i++) {
+            events.add(new RxSensorEvent(input[i], null, 3, i));
+        }
+        TestSubscriber<RxSensorEvent> subscriber = Flowable.fromIterable(events).compose(filter).test();
+        subscriber.assertComplete();
+        subscriber.assertValueCount(input.length);
+        return subscriber.values();
+    }
+
+    private static void add(ArrayDeque<Float> window, float value, int windowSize) {
+        window.addLast(value);
+        if (window.size() > windowSize) {
+            window.removeFirst();
+        }
+    }
+
+    private static float median(ArrayDeque<Float> window) {
+        float[] sorted = new float[window.size()];
+        int i = 0;
+        for (Float value : window) {
+            sorted[i++] = value;
+        }
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return (n & 1) == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2F;
+    }
+}
@@ -0,0 +1,123 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * The calls to the SensorManager are recorded instead, as the periods registered in order, with
+ * -1 for an unregistration.
+ */
+public class PausableRegistrationTest {
+
+    private static final int FOREGROUND_US = 20000;
+
+    private static final int BACKGROUND_US = 200000;
+
+    private PublishProcessor<Boolean> activeSignal;
+
+    private List<Integer> calls;
+
+    @Before
+    public void setUp() {
+        activeSignal = PublishProcessor.create();
+        calls = new ArrayList<>();
+    }
+
+    @Test
+    public void followsTheSignal() {
+        TestSubscriber<RxSensorEvent> subscriber = events(BACKGROUND_US).test();
+        activeSignal.onNext(true);
+        activeSignal.onNext(true);
+        activeSignal.onNext(false);
+        activeSignal.onNext(true);
+
+        assertEquals(Arrays.asList(FOREGROUND_US, -1, BACKGROUND_US, -1, FOREGROUND_US), calls);
+        subscriber.assertNotTerminated();
+
+        subscriber.dispose();
+        assertEquals(Arrays.asList(FOREGROUND_US, -1, BACKGROUND_US, -1, FOREGROUND_US, -1), calls);
+        assertFalse(activeSignal.hasSubscribers());
+    }
+
+    @Test
+    public void unregistersWhenTheSignalCompletes() {
+        TestSubscriber<RxSensorEvent> subscriber = events(BACKGROUND_US).test();
+        activeSignal.onNext(true);
+        activeSignal.onNext(false);
+        // e.g. onActivityDestroyed while sampling in the background
+        activeSignal.onComplete();
+
+        subscriber.assertComplete();
+        assertEquals(Arrays.asList(FOREGROUND_US, -1, BACKGROUND_US, -1), calls);
+    }
+
+    @Test
+    public void unregistersWhenTheSignalFails() {
+        TestSubscriber<RxSensorEvent> subscriber = events(BACKGROUND_US).test();
+        activeSignal.onNext(true);
+        IllegalStateException error = new IllegalStateException();
+        activeSignal.onError(error);
+
+        subscriber.assertError(error);
+        assertEquals(Arrays.asList(FOREGROUND_US, -1), calls);
+    }
+
+    @Test
+    public void withoutBackgroundSamplingTheListenerIsNotRegisteredWhileInactive() {
+        TestSubscriber<RxSensorEvent> subscriber = events(RxSensorLifecycle.NO_BACKGROUND_SAMPLING).test();
+        activeSignal.onNext(false);
+        activeSignal.onNext(true);
+        activeSignal.onNext(false);
+        activeSignal.onComplete();
+
+        subscriber.assertComplete();
+        assertEquals(Arrays.asList(FOREGROUND_US, -1), calls);
+    }
+
+    /**
+     * Like {@link SensorEventFlowable#create(android.hardware.SensorManager, android.hardware.Sensor, int, int, Flowable, int)},
+     * with the recording registration.
+     */
+    private Flowable<RxSensorEvent> events(final int backgroundSamplingPeriodUs) {
+        return Flowable.create(new FlowableOnSubscribe<RxSensorEvent>() {
+            @Override
+            public void subscribe(@NonNull FlowableEmitter<RxSensorEvent> e) throws Exception {
+                final PausableRegistration registration = new PausableRegistration(null, null, null,
+                        FOREGROUND_US, backgroundSamplingPeriodUs, 0) {
+                    @Override
+                    void register(int periodUs) {
+                        calls.add(periodUs);
+                    }
+
+                    @Override
+                    void unregister() {
+                        calls.add(-1);
+                    }
+                };
+                e.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() throws Exception {
+                        registration.stop();
+                    }
+                });
+                registration.start(activeSignal, e);
+            }
+        }, BackpressureStrategy.MISSING);
+    }
+}
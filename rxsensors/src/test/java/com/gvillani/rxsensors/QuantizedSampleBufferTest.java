@@ -0,0 +1,116 @@
+package com.gvillani.rxsensors;
+
+import com.gvillani.rxsensors.offline.SensorRecording;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuantizedSampleBufferTest {
+
+    private final SampleQuantizer quantizer = new SampleQuantizer(0.01F);
+
+    @Test
+    public void samplesSurviveTheRoundTrip() {
+        QuantizedSampleBuffer buffer = new QuantizedSampleBuffer(quantizer, 500, 3);
+        Random random = new Random(1);
+        float[][] values = new float[500][];
+        long[] timestamps = new long[500];
+        long timestamp = 123456789012L;
+        for (int i = 0; i < 500; i++) {
+            values[i] = new float[]{random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10};
+            timestamps[i] = timestamp;
+            assertTrue(buffer.add(new RxSensorEvent(values[i], null, 3, timestamp)));
+            timestamp += 4000000 + random.nextInt(1000000);
+        }
+
+        assertEquals(500, buffer.size());
+        float[] out = new float[3];
+        for (int i = 0; i < 500; i++) {
+            buffer.valuesAt(i, out);
+            assertArrayEquals(values[i], out, quantizer.getMaxError() + 1e-5F);
+            assertEquals(values[i][1], buffer.valueAt(i, 1), quantizer.getMaxError() + 1e-5F);
+            assertTimestamp(timestamps[i], buffer.timestampAt(i));
+        }
+        // the first sample of a block is exact
+        assertEquals(timestamps[0], buffer.timestampAt(0));
+        assertEquals(timestamps[64], buffer.timestampAt(64));
+
+        RxSensorEvent event = buffer.eventAt(10);
+        assertEquals(buffer.timestampAt(10), event.timestamp);
+        SensorRecording recording = buffer.toRecording();
+        assertEquals(500, recording.size());
+        assertEquals(buffer.timestampAt(499), recording.timestampAt(499));
+    }
+
+    @Test
+    public void blocksRollOverAtLowRatesAndAfterLongGaps() {
+        QuantizedSampleBuffer buffer = new QuantizedSampleBuffer(quantizer, 300, 1);
+        long[] timestamps = new long[300];
+        long timestamp = 0;
+        for (int i = 0; i < 300; i++) {
+            timestamps[i] = timestamp;
+            assertTrue(buffer.add(new float[]{i / 100F}, timestamp));
+            // 1 Hz: a block of 64 samples spans more than a minute, then gaps of two hours
+            timestamp += i < 200 ? 1000000000L : 2 * 3600 * 1000000000L + 7;
+        }
+
+        for (int i = 0; i < 300; i++) {
+            assertTimestamp(timestamps[i], buffer.timestampAt(i));
+            assertEquals(i / 100F, buffer.valueAt(i, 0), quantizer.getMaxError() + 1e-5F);
+        }
+        // the samples after the gaps are the first of their block
+        assertEquals(timestamps[250], buffer.timestampAt(250));
+    }
+
+    @Test
+    public void rejectsOlderSamplesAndSamplesBeyondTheCapacity() {
+        QuantizedSampleBuffer buffer = new QuantizedSampleBuffer(quantizer, 2, 1);
+        assertTrue(buffer.add(new float[]{1F}, 2000));
+        assertFalse(buffer.add(new float[]{2F}, 1000));
+        assertTrue(buffer.add(new float[]{3F}, 2000));
+        assertFalse(buffer.add(new float[]{4F}, 3000));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void clearDoesNotLeakTheOldSamples() {
+        QuantizedSampleBuffer buffer = new QuantizedSampleBuffer(quantizer, 10, 3);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(new float[]{1F, 2F, 3F}, 5000000000L + i);
+        }
+        buffer.clear();
+        assertEquals(0, buffer.size());
+
+        // earlier timestamps are accepted again, the missing values are not the old ones
+        assertTrue(buffer.add(new float[]{4F}, 1000));
+        assertTrue(buffer.add(new float[]{5F, 6F}, 2000));
+        assertEquals(2, buffer.size());
+        float[] out = new float[3];
+        buffer.valuesAt(0, out);
+        assertArrayEquals(new float[]{4F, 0F, 0F}, out, quantizer.getMaxError());
+        buffer.valuesAt(1, out);
+        assertArrayEquals(new float[]{5F, 6F, 0F}, out, quantizer.getMaxError());
+        assertEquals(1000, buffer.timestampAt(0));
+        assertEquals(2000, buffer.timestampAt(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexBeyondTheSizeIsRejected() {
+        QuantizedSampleBuffer buffer = new QuantizedSampleBuffer(quantizer, 10, 3);
+        buffer.add(new float[]{1F, 2F, 3F}, 0);
+        buffer.timestampAt(1);
+    }
+
+    /**
+     * The timestamps are truncated to the microsecond.
+     */
+    private static void assertTimestamp(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, actual <= expected && actual > expected - 1000);
+    }
+}
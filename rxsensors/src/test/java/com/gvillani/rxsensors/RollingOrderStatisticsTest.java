@@ -0,0 +1,107 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the window with a sorted copy of the last values.
+ */
+public class RollingOrderStatisticsTest {
+
+    @Test
+    public void matchesSortedWindow() {
+        for (int capacity : new int[]{1, 2, 3, 8, 33, 256}) {
+            check(capacity, 5000, new Random(capacity), 1000);
+        }
+    }
+
+    @Test
+    public void matchesSortedWindowWithDuplicates() {
+        for (int capacity : new int[]{2, 7, 64}) {
+            // few distinct values, so most ranks are ties
+            check(capacity, 5000, new Random(capacity), 3);
+        }
+    }
+
+    @Test
+    public void matchesSortedWindowOfEqualValues() {
+        RollingOrderStatistics window = new RollingOrderStatistics(10);
+        for (int i = 0; i < 25; i++) {
+            window.add(4F);
+            assertEquals(Math.min(i + 1, 10), window.size());
+            assertEquals(4F, window.median(), 0F);
+            assertEquals(0F, window.medianAbsoluteDeviation(4F), 0F);
+        }
+    }
+
+    @Test
+    public void evictsTheOldestValue() {
+        RollingOrderStatistics window = new RollingOrderStatistics(3);
+        window.add(100F);
+        window.add(1F);
+        window.add(2F);
+        assertEquals(2F, window.median(), 0F);
+        window.add(3F);
+        assertEquals(3, window.size());
+        assertEquals(1F, window.select(0), 0F);
+        assertEquals(3F, window.select(2), 0F);
+        window.add(-5F);
+        window.add(-6F);
+        assertEquals(-6F, window.select(0), 0F);
+        assertEquals(-5F, window.median(), 0F);
+        assertEquals(3F, window.select(2), 0F);
+    }
+
+    private static void check(int capacity, int samples, Random random, int distinct) {
+        RollingOrderStatistics window = new RollingOrderStatistics(capacity);
+        ArrayDeque<Float> last = new ArrayDeque<>();
+        for (int n = 0; n < samples; n++) {
+            float value = random.nextInt(distinct) - distinct / 2 + (distinct > 3 ? random.nextFloat() : 0F);
+            window.add(value);
+            last.addLast(value);
+            if (last.size() > capacity) {
+                last.removeFirst();
+            }
+
+            float[] sorted = sorted(last);
+            String message = "capacity " + capacity + ", sample " + n;
+            assertEquals(message, sorted.length, window.size());
+            for (int rank = 0; rank < sorted.length; rank++) {
+                assertEquals(message, sorted[rank], window.select(rank), 0F);
+            }
+            float median = median(sorted);
+            assertEquals(message, median, window.median(), 0F);
+            assertEquals(message, medianAbsoluteDeviation(sorted, median),
+                    window.medianAbsoluteDeviation(median), 0F);
+        }
+    }
+
+    private static float[] sorted(ArrayDeque<Float> values) {
+        float[] sorted = new float[values.size()];
+        int i = 0;
+        for (Float value : values) {
+            sorted[i++] = value;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static float median(float[] sorted) {
+        int n = sorted.length;
+        return (n & 1) == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2F;
+    }
+
+    private static float medianAbsoluteDeviation(float[] sorted, float median) {
+        float[] deviations = new float[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            deviations[i] = Math.abs(sorted[i] - median);
+        }
+        Arrays.sort(deviations);
+        return median(deviations);
+    }
+}
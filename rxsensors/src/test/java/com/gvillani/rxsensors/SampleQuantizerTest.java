@@ -0,0 +1,34 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleQuantizerTest {
+
+    private final SampleQuantizer quantizer = new SampleQuantizer(0.01F);
+
+    @Test
+    public void nanSurvivesTheRoundTrip() {
+        assertEquals(SampleQuantizer.NAN_CODE, quantizer.encode(Float.NaN));
+        assertTrue(Float.isNaN(quantizer.decode(quantizer.encode(Float.NaN))));
+    }
+
+    @Test
+    public void valuesOutOfRangeAreClippedAwayFromTheNanCode() {
+        assertEquals(Short.MAX_VALUE, quantizer.encode(1e9F));
+        assertEquals(-Short.MAX_VALUE, quantizer.encode(-1e9F));
+        assertEquals(-Short.MAX_VALUE, quantizer.encode(Float.NEGATIVE_INFINITY));
+        assertEquals(0F, quantizer.decode(quantizer.encode(0F)), 0F);
+    }
+
+    @Test
+    public void errorIsAtMostHalfStep() {
+        for (float value = -300F; value <= 300F; value += 0.0037F) {
+            // plus the rounding error of the float arithmetic
+            float tolerance = quantizer.getMaxError() + 4 * Math.ulp(value);
+            assertEquals(value, quantizer.decode(quantizer.encode(value)), tolerance);
+        }
+    }
+}
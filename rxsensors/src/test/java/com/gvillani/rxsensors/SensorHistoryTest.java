@@ -0,0 +1,206 @@
+package com.gvillani.rxsensors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.exceptions.UndeliverableException;
+import io.reactivex.functions.Consumer;
+import io.reactivex.plugins.RxJavaPlugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The sample i has the timestamp 1000 * i and the values {i, -i}, so that every copied sample can
+ * be checked against its timestamp.
+ */
+public class SensorHistoryTest {
+
+    @After
+    public void tearDown() {
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void findsTheRangeOfTimestamps() {
+        SensorHistory history = history();
+        for (int i = 0; i < 100; i++) {
+            history.add(sample(i));
+        }
+
+        long[] timestamps = new long[200];
+        float[] values = new float[400];
+        // both ends are included, and they don't need to match a sample
+        assertEquals(11, history.snapshot(10000, 20000, timestamps, values));
+        assertSamples(10, 11, timestamps, values);
+        assertEquals(10, history.snapshot(10001, 20500, timestamps, values));
+        assertSamples(11, 10, timestamps, values);
+
+        assertEquals(100, history.snapshot(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values));
+        assertSamples(0, 100, timestamps, values);
+        assertEquals(0, history.snapshot(200000, 300000, timestamps, values));
+        assertEquals(0, history.snapshot(20000, 10000, timestamps, values));
+
+        // arrays too small: the most recent samples of the range
+        assertEquals(5, history.snapshot(10000, 20000, new long[5], new float[20]));
+        long[] recent = new long[5];
+        float[] recentValues = new float[10];
+        history.snapshot(10000, 20000, recent, recentValues);
+        assertSamples(16, 5, recent, recentValues);
+    }
+
+    @Test
+    public void snapshotLastIsMeasuredFromTheLatestSample() {
+        SensorHistory history = history();
+        long[] timestamps = new long[200];
+        float[] values = new float[400];
+        assertEquals(0, history.snapshotLast(1, TimeUnit.SECONDS, timestamps, values));
+        assertEquals(Long.MIN_VALUE, history.getLatestTimestamp());
+
+        for (int i = 0; i < 50; i++) {
+            history.add(sample(i));
+        }
+        assertEquals(49000, history.getLatestTimestamp());
+        assertEquals(11, history.snapshotLast(10, TimeUnit.MICROSECONDS, timestamps, values));
+        assertSamples(39, 11, timestamps, values);
+    }
+
+    @Test
+    public void wrapsAroundWithoutReturningTheGuardSlots() {
+        SensorHistory history = history();
+        int capacity = history.capacity();
+        // 150 readable samples, in a ring of 256 slots
+        assertEquals(150, capacity);
+
+        long[] timestamps = new long[1000];
+        float[] values = new float[2000];
+        for (int i = 0; i < 1000; i++) {
+            history.add(sample(i));
+            int count = history.snapshot(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values);
+            assertEquals(Math.min(i + 1, capacity), count);
+            assertSamples(i + 1 - count, count, timestamps, values);
+        }
+    }
+
+    @Test
+    public void discardsSamplesThatAreNotNewer() {
+        SensorHistory history = history();
+        history.add(sample(1));
+        history.add(sample(1));
+        history.add(sample(0));
+        history.add(sample(2));
+
+        long[] timestamps = new long[10];
+        float[] values = new float[20];
+        assertEquals(2, history.snapshot(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values));
+        assertSamples(1, 2, timestamps, values);
+    }
+
+    @Test
+    public void storesTheMissingValuesAsZero() {
+        SensorHistory history = new SensorHistory.Builder(1, TimeUnit.SECONDS, 10000).build();
+        history.add(new RxSensorEvent(new float[]{1F, 2F, 3F}, null, 3, 1));
+        history.add(new RxSensorEvent(new float[]{4F}, null, 3, 2));
+
+        long[] timestamps = new long[2];
+        float[] values = new float[6];
+        assertEquals(2, history.snapshot(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values));
+        assertArrayEquals(new float[]{1F, 2F, 3F, 4F, 0F, 0F}, values, 0F);
+    }
+
+    @Test
+    public void forwardsTheErrorOfTheSourceToThePlugins() {
+        final AtomicReference<Throwable> received = new AtomicReference<>();
+        RxJavaPlugins.setErrorHandler(new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull Throwable throwable) throws Exception {
+                received.set(throwable);
+            }
+        });
+        SensorHistory history = history();
+        IOException error = new IOException();
+        history.attach(Flowable.just(sample(0), sample(1)).concatWith(Flowable.<RxSensorEvent>error(error)));
+
+        assertTrue(received.get() instanceof UndeliverableException);
+        assertSame(error, received.get().getCause());
+        assertEquals(1000, history.getLatestTimestamp());
+    }
+
+    @Test
+    public void snapshotsAreConsistentWhileTheWriterWrapsAround() throws InterruptedException {
+        final SensorHistory history = history();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<AssertionError> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            final boolean last = r == 0;
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] timestamps = new long[history.capacity()];
+                    float[] values = new float[2 * history.capacity()];
+                    try {
+                        while (running.get()) {
+                            int count = last
+                                    ? history.snapshotLast(50, TimeUnit.MICROSECONDS, timestamps, values)
+                                    : history.snapshot(Long.MIN_VALUE, Long.MAX_VALUE, timestamps, values);
+                            if (count > 0) {
+                                assertSamples((int) (timestamps[0] / 1000), count, timestamps, values);
+                            }
+                        }
+                    } catch (AssertionError e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        // far more samples than the capacity, written as fast as possible
+        for (int i = 0; i < 2000000 && failure.get() == null; i++) {
+            history.add(sample(i));
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    /**
+     * @return a history of 150 readable samples, with 2 values per sample.
+     */
+    private static SensorHistory history() {
+        return new SensorHistory.Builder(100, TimeUnit.MILLISECONDS, 1000).setDimension(2).build();
+    }
+
+    private static RxSensorEvent sample(int i) {
+        return new RxSensorEvent(new float[]{i, -i}, null, 3, 1000L * i);
+    }
+
+    /**
+     * Asserts that the arrays start with count consecutive samples, the first being the sample
+     * first.
+     */
+    private static void assertSamples(int first, int count, long[] timestamps, float[] values) {
+        for (int i = 0; i < count; i++) {
+            int sample = first + i;
+            assertEquals(1000L * sample, timestamps[i]);
+            assertEquals(sample, values[2 * i], 0F);
+            assertEquals(-sample, values[2 * i + 1], 0F);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.gvillani.rxsensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SensorRingBufferTest {
+
+    private static final int EVENTS = 200000;
+
+    private static final int READERS = 4;
+
+    @Test
+    public void concurrentReadersNeverSeeTornSamples() throws Exception {
+        SensorRingBuffer ring = new SensorRingBuffer.Builder(source(EVENTS), 16).build();
+
+        CountDownLatch latch = new CountDownLatch(READERS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<AtomicLong> received = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            received.add(check(ring.observe(0, 16, SensorRingBuffer.OverflowPolicy.DROP_OLDEST,
+                    Schedulers.newThread()), latch, failure));
+        }
+        ring.connect();
+
+        assertTrue("readers did not complete", latch.await(60, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        for (AtomicLong count : received) {
+            assertTrue(count.get() > 0);
+        }
+    }
+
+    @Test
+    public void readerWithinCapacityReceivesEverySample() throws Exception {
+        SensorRingBuffer ring = new SensorRingBuffer.Builder(source(EVENTS), EVENTS).build();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong received = check(ring.observe(0, EVENTS, SensorRingBuffer.OverflowPolicy.ERROR,
+                Schedulers.newThread()), latch, failure);
+        ring.connect();
+
+        assertTrue("reader did not complete", latch.await(60, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals(EVENTS, received.get());
+    }
+
+    /**
+     * Every value of the sample i is derived from i, so that a sample mixing two writes is
+     * detected by the reader.
+     */
+    private static Flowable<RxSensorEvent> source(int events) {
+        return Flowable.range(0, events)
+                .map(new Function<Integer, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull Integer i) throws Exception {
+                        return new RxSensorEvent(new float[]{i, -i, i * 0.5F}, null, i & 3, i);
+                    }
+                })
+                .subscribeOn(Schedulers.newThread());
+    }
+
+    private static AtomicLong check(Flowable<RxSensorEvent> flowable, final CountDownLatch latch,
+                                    final AtomicReference<Throwable> failure) {
+        final AtomicLong count = new AtomicLong();
+        final long[] last = {-1};
+        flowable.subscribe(new Consumer<RxSensorEvent>() {
+            @Override
+            public void accept(@NonNull RxSensorEvent event) throws Exception {
+                long i = event.timestamp;
+                if (i <= last[0]) {
+                    throw new AssertionError("sample " + i + " after " + last[0]);
+                }
+                if (event.values.length != 3 || event.values[0] != i || event.values[1] != -i
+                        || event.values[2] != i * 0.5F || event.accuracy != (i & 3)) {
+                    throw new AssertionError("torn sample " + i);
+                }
+                last[0] = i;
+                count.incrementAndGet();
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(@NonNull Throwable throwable) throws Exception {
+                failure.compareAndSet(null, throwable);
+                latch.countDown();
+            }
+        }, new Action() {
+            @Override
+            public void run() throws Exception {
+                latch.countDown();
+            }
+        });
+        return count;
+    }
+}
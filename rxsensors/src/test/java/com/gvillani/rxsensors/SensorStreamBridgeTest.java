@@ -0,0 +1,217 @@
+package com.gvillani.rxsensors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+import io.reactivex.observers.BaseTestConsumer;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports and receives events through a TCP connection on the loopback interface, or through
+ * in-memory channels to check the threads of the writes.
+ */
+public class SensorStreamBridgeTest {
+
+    private static final int EVENTS = 10000;
+
+    private ServerSocketChannel server;
+
+    private SocketChannel client;
+
+    private SocketChannel accepted;
+
+    @Before
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        client = SocketChannel.open(server.socket().getLocalSocketAddress());
+        accepted = server.accept();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    @Test
+    public void receivesTheExportedEvents() throws InterruptedException {
+        exportAndReceive(client);
+    }
+
+    @Test
+    public void exportsToAChannelWithoutGatheringWrites() throws InterruptedException {
+        exportAndReceive(Channels.newChannel(Channels.newOutputStream(client)));
+    }
+
+    @Test
+    public void writesAnIncompleteFrameAfterTheMaxDelay() {
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestObserver<Void> export = SensorStreamBridge.export(source, client, 3, 100, 50, TimeUnit.MILLISECONDS)
+                .test();
+        TestSubscriber<RxSensorEvent> received = SensorStreamBridge.receive(accepted)
+                .subscribeOn(Schedulers.io())
+                .test();
+
+        source.onNext(event(1));
+        source.onNext(event(2));
+        source.onNext(event(3));
+
+        // the source is still open, the frame can only be written by the timer
+        received.awaitCount(3, BaseTestConsumer.TestWaitStrategy.SLEEP_10MS, 5000);
+        received.assertValueCount(3);
+        assertEquals(event(3).timestamp, received.values().get(2).timestamp);
+
+        source.onComplete();
+        export.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        export.assertComplete();
+        received.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        received.assertComplete();
+    }
+
+    @Test
+    public void writesOnTheScheduler() {
+        TestScheduler scheduler = new TestScheduler();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestObserver<Void> export = SensorStreamBridge.export(source, Channels.newChannel(out), 3, 2, 1,
+                TimeUnit.SECONDS, scheduler).test();
+
+        // a full frame is only queued by the source
+        source.onNext(event(1));
+        source.onNext(event(2));
+        assertEquals(0, out.size());
+        scheduler.triggerActions();
+        int frameSize = SensorStreamBridge.HEADER_SIZE + 2 * SensorStreamBridge.sampleSize(3);
+        assertEquals(frameSize, out.size());
+
+        source.onNext(event(3));
+        scheduler.triggerActions();
+        assertEquals(frameSize, out.size());
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertEquals(frameSize + SensorStreamBridge.HEADER_SIZE + SensorStreamBridge.sampleSize(3), out.size());
+
+        source.onNext(event(4));
+        source.onComplete();
+        export.assertNotTerminated();
+        scheduler.triggerActions();
+        export.assertComplete();
+
+        List<RxSensorEvent> events = SensorStreamBridge.receive(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())))
+                .toList()
+                .blockingGet();
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(event(i + 1).timestamp, events.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void aBlockedWriteDoesNotBlockTheSource() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        WritableByteChannel blocking = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                int written = src.remaining();
+                src.position(src.limit());
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        PublishProcessor<RxSensorEvent> source = PublishProcessor.create();
+        TestObserver<Void> export = SensorStreamBridge.export(source, blocking, 3, 1, 0, TimeUnit.MILLISECONDS)
+                .test();
+
+        source.onNext(event(1));
+        source.onComplete();
+        // the source returned while the write of its event is still blocked
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        export.assertNotTerminated();
+
+        release.countDown();
+        export.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        export.assertComplete();
+    }
+
+    private void exportAndReceive(WritableByteChannel channel) throws InterruptedException {
+        TestObserver<Void> export = SensorStreamBridge.export(source(), channel, 3, 64, 10, TimeUnit.MILLISECONDS)
+                .subscribeOn(Schedulers.io())
+                .test();
+        TestSubscriber<RxSensorEvent> received = SensorStreamBridge.receive(accepted)
+                .subscribeOn(Schedulers.io())
+                .test();
+
+        received.awaitTerminalEvent(30, TimeUnit.SECONDS);
+        export.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        export.assertComplete();
+        received.assertComplete();
+
+        List<RxSensorEvent> events = received.values();
+        assertEquals(EVENTS, events.size());
+        for (int i = 0; i < EVENTS; i++) {
+            RxSensorEvent expected = event(i);
+            RxSensorEvent actual = events.get(i);
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.accuracy, actual.accuracy);
+            assertArrayEquals(expected.values, actual.values, 0F);
+            assertNull(actual.sensor);
+        }
+    }
+
+    private static Flowable<RxSensorEvent> source() {
+        return Flowable.range(0, EVENTS).map(new Function<Integer, RxSensorEvent>() {
+            @Override
+            public RxSensorEvent apply(@NonNull Integer i) throws Exception {
+                return event(i);
+            }
+        });
+    }
+
+    private static RxSensorEvent event(int i) {
+        return new RxSensorEvent(new float[]{i, -i, i / 3F}, null, i & 3, i * 1000000L);
+    }
+}
@@ -0,0 +1,94 @@
+package com.gvillani.rxsensors.offline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AxisStatisticsTest {
+
+    @Test
+    public void mergedStatisticsMatchTwoPassComputation() {
+        Random random = new Random(29);
+        List<float[]> samples = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // a third of the events miss the last axis, a few miss the last two
+            int length = i % 3 == 0 ? 2 : (i % 101 == 0 ? 1 : 3);
+            float[] values = new float[length];
+            for (int axis = 0; axis < length; axis++) {
+                values[axis] = 100F * axis + (float) random.nextGaussian() * (axis + 1);
+            }
+            samples.add(values);
+        }
+
+        for (int parts : new int[]{1, 2, 7, 64}) {
+            AxisStatistics merged = new AxisStatistics(3);
+            int from = 0;
+            for (int part = 0; part < parts; part++) {
+                int to = samples.size() * (part + 1) / parts;
+                AxisStatistics partial = new AxisStatistics(3);
+                for (int i = from; i < to; i++) {
+                    partial.add(samples.get(i));
+                }
+                merged.merge(partial);
+                from = to;
+            }
+            assertMatches("parts " + parts, samples, merged);
+        }
+    }
+
+    @Test
+    public void mergeWithEmptyAxes() {
+        AxisStatistics left = new AxisStatistics(2);
+        left.add(new float[]{1F});
+        left.add(new float[]{3F});
+        AxisStatistics right = new AxisStatistics(2);
+        right.add(new float[]{5F, 10F});
+        AxisStatistics empty = new AxisStatistics(2);
+
+        left.merge(empty).merge(right);
+        assertEquals(3, left.getCount());
+        assertEquals(3, left.getCount(0));
+        assertEquals(1, left.getCount(1));
+        assertEquals(3.0, left.getMean(0), 1e-12);
+        assertEquals(8.0 / 3, left.getVariance(0), 1e-12);
+        assertEquals(10.0, left.getMean(1), 1e-12);
+        assertEquals(0.0, left.getVariance(1), 1e-12);
+        assertEquals(10F, left.getMin(1), 0F);
+        assertEquals(10F, left.getMax(1), 0F);
+    }
+
+    private static void assertMatches(String message, List<float[]> samples, AxisStatistics statistics) {
+        assertEquals(message, samples.size(), statistics.getCount());
+        for (int axis = 0; axis < 3; axis++) {
+            long count = 0;
+            double sum = 0;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (float[] values : samples) {
+                if (axis < values.length) {
+                    count++;
+                    sum += values[axis];
+                    min = Math.min(min, values[axis]);
+                    max = Math.max(max, values[axis]);
+                }
+            }
+            double mean = sum / count;
+            double squares = 0;
+            for (float[] values : samples) {
+                if (axis < values.length) {
+                    squares += (values[axis] - mean) * (values[axis] - mean);
+                }
+            }
+
+            assertEquals(message, count, statistics.getCount(axis));
+            assertEquals(message, mean, statistics.getMean(axis), 1e-9);
+            assertEquals(message, squares / count, statistics.getVariance(axis), 1e-9);
+            assertEquals(message, min, statistics.getMin(axis), 0F);
+            assertEquals(message, max, statistics.getMax(axis), 0F);
+        }
+    }
+}
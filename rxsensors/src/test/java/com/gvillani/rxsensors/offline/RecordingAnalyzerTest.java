@@ -0,0 +1,158 @@
+package com.gvillani.rxsensors.offline;
+
+import com.gvillani.rxsensors.MedianFilter;
+import com.gvillani.rxsensors.RxSensorEvent;
+import com.gvillani.rxsensors.RxSensorFilter;
+import com.gvillani.rxsensors.RxSensorTransformer;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Flowable;
+import io.reactivex.annotations.NonNull;
+import io.reactivex.functions.Function;
+
+import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_HIGH;
+import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_LOW;
+import static android.hardware.SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RecordingAnalyzerTest {
+
+    private static final int SIZE = 20000;
+
+    private static final long PERIOD_NS = 10000000L;
+
+    private static final long YEAR_NS = TimeUnit.DAYS.toNanos(365);
+
+    @Test
+    public void chunkedOutputEqualsSequentialOutput() {
+        final SensorRecording recording = recording(SIZE);
+        // the median of 5 samples has a finite memory, shorter than the warm-up
+        RecordingAnalyzer analyzer = new RecordingAnalyzer.Builder(1, TimeUnit.SECONDS)
+                .setWarmUp(200, TimeUnit.MILLISECONDS)
+                .filter(RxSensorFilter.minAccuracy(SENSOR_STATUS_ACCURACY_MEDIUM))
+                .compose(new MedianFilter.Builder(5).build())
+                .build();
+
+        List<RxSensorEvent> expected = Flowable.range(0, recording.size())
+                .map(new Function<Integer, RxSensorEvent>() {
+                    @Override
+                    public RxSensorEvent apply(@NonNull Integer i) throws Exception {
+                        return recording.eventAt(i);
+                    }
+                })
+                .filter(RxSensorFilter.minAccuracy(SENSOR_STATUS_ACCURACY_MEDIUM))
+                .compose(new MedianFilter.Builder(5).build())
+                .toList()
+                .blockingGet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<RxSensorEvent> actual = analyzer.analyze(recording, RecordingAnalyzer.toList());
+            assertEvents(expected, actual);
+            assertEvents(expected, new RecordingAnalyzer.Builder(1, TimeUnit.SECONDS)
+                    .setWarmUp(200, TimeUnit.MILLISECONDS)
+                    .filter(RxSensorFilter.minAccuracy(SENSOR_STATUS_ACCURACY_MEDIUM))
+                    .compose(new MedianFilter.Builder(5).build())
+                    .setExecutor(executor)
+                    .build()
+                    .analyze(recording, RecordingAnalyzer.toList()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void resultDoesNotDependOnTheExecutor() {
+        SensorRecording recording = recording(SIZE);
+        List<RxSensorEvent> expectedEvents = null;
+        AxisStatistics expectedStatistics = null;
+        for (int threads : new int[]{1, 2, 3, 8}) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                // the low pass filter has an infinite memory, but the chunks do not change
+                RecordingAnalyzer analyzer = new RecordingAnalyzer.Builder(700, TimeUnit.MILLISECONDS)
+                        .setWarmUp(100, TimeUnit.MILLISECONDS)
+                        .compose(RxSensorTransformer.lowPassFilter(0.2F))
+                        .setExecutor(executor)
+                        .build();
+                List<RxSensorEvent> events = analyzer.analyze(recording, RecordingAnalyzer.toList());
+                AxisStatistics statistics = analyzer.analyze(recording, AxisStatistics.reducer(3));
+
+                if (expectedEvents == null) {
+                    expectedEvents = events;
+                    expectedStatistics = statistics;
+                } else {
+                    assertEvents(expectedEvents, events);
+                    for (int axis = 0; axis < 3; axis++) {
+                        assertEquals(expectedStatistics.getCount(axis), statistics.getCount(axis));
+                        assertEquals(expectedStatistics.getMean(axis), statistics.getMean(axis), 0);
+                        assertEquals(expectedStatistics.getVariance(axis), statistics.getVariance(axis), 0);
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        assertEquals(SIZE, expectedEvents.size());
+    }
+
+    @Test
+    public void gapsDoNotCreateChunks() {
+        // ten samples, ten years of nothing, ten more samples
+        long[] timestamps = new long[20];
+        float[] values = new float[20];
+        for (int i = 0; i < 20; i++) {
+            timestamps[i] = i * PERIOD_NS + (i < 10 ? 0 : 10 * YEAR_NS);
+            values[i] = i;
+        }
+        SensorRecording recording = new SensorRecording(timestamps, values, new int[20], 1);
+        RecordingAnalyzer analyzer = new RecordingAnalyzer.Builder(25, TimeUnit.MILLISECONDS).build();
+
+        long ms = 1000000L;
+        long gap = 10 * YEAR_NS;
+        // ten years are a whole number of chunks, the samples after the gap are at 100-190 ms
+        assertEquals(0, gap % (25 * ms));
+        assertArrayEquals(new long[]{0, 25 * ms, 50 * ms, 75 * ms,
+                gap + 100 * ms, gap + 125 * ms, gap + 150 * ms, gap + 175 * ms}, analyzer.chunkStarts(recording));
+
+        AxisStatistics statistics = analyzer.analyze(recording, AxisStatistics.reducer(1));
+        assertEquals(20, statistics.getCount());
+        assertEquals(9.5, statistics.getMean(0), 1e-12);
+    }
+
+    private static void assertEvents(List<RxSensorEvent> expected, List<RxSensorEvent> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).timestamp, actual.get(i).timestamp);
+            assertEquals(expected.get(i).accuracy, actual.get(i).accuracy);
+            assertArrayEquals(expected.get(i).values, actual.get(i).values, 0F);
+        }
+    }
+
+    /**
+     * Three axes of noise with spikes, sampled every 10 ms with a jitter of 3 ms, with a quarter
+     * of the samples at low accuracy.
+     */
+    private static SensorRecording recording(int size) {
+        Random random = new Random(23);
+        long[] timestamps = new long[size];
+        float[] values = new float[size * 3];
+        int[] accuracies = new int[size];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = i * PERIOD_NS + random.nextInt(3000000);
+            for (int axis = 0; axis < 3; axis++) {
+                values[i * 3 + axis] = (float) random.nextGaussian() + (random.nextInt(30) == 0 ? 20F : 0F);
+            }
+            accuracies[i] = random.nextInt(4) == 0 ? SENSOR_STATUS_ACCURACY_LOW : SENSOR_STATUS_ACCURACY_HIGH;
+        }
+        return new SensorRecording(timestamps, values, accuracies, 3);
+    }
+}